@@ -0,0 +1,290 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.fenixedu.bennu.core.domain.groups.PersistentGroup;
+import org.fenixedu.bennu.core.groups.AnyoneGroup;
+import org.fenixedu.bennu.core.groups.LoggedGroup;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
+import org.fenixedu.spaces.ui.InformationBean;
+import org.joda.time.DateTime;
+
+import pt.ist.fenixframework.CallableWithoutException;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Generates a synthetic institution for {@link ImportSpacesBenchmark}: a classification catalogue, the pre-existing spaces and
+ * groups the importer expects to find, and the spaces and occupations dumps that refer to them.
+ *
+ * The importer derives the new space id from the low 16 bits of the legacy one, so the dump ids are built from the ids of the
+ * seeded spaces and a run can't have more than 65535 spaces.
+ */
+public class BenchmarkDataGenerator {
+
+    private static final long LEGACY_SPACE_CID = 570;
+    private static final int ROOT_CLASSIFICATIONS = 12;
+    private static final int CHILD_CLASSIFICATIONS = 8;
+
+    private static class SeededSpace {
+        final String legacyId;
+        final String parentLegacyId;
+        final String type;
+        final Space space;
+
+        SeededSpace(String legacyId, String parentLegacyId, String type, Space space) {
+            this.legacyId = legacyId;
+            this.parentLegacyId = parentLegacyId;
+            this.type = type;
+            this.space = space;
+        }
+    }
+
+    private final Random random;
+    private final int campuses;
+    private final int buildingsPerCampus;
+    private final int floorsPerBuilding;
+    private final int roomsPerFloor;
+    private final int informationsPerSpace;
+    private final int blueprintBytes;
+    private final int occupationsPerRoom;
+
+    private final List<String> groupIds = new ArrayList<>();
+    private final List<String> roomIds = new ArrayList<>();
+
+    public BenchmarkDataGenerator(long seed, int campuses, int buildingsPerCampus, int floorsPerBuilding, int roomsPerFloor,
+            int informationsPerSpace, int blueprintBytes, int occupationsPerRoom) {
+        this.random = new Random(seed);
+        this.campuses = campuses;
+        this.buildingsPerCampus = buildingsPerCampus;
+        this.floorsPerBuilding = floorsPerBuilding;
+        this.roomsPerFloor = roomsPerFloor;
+        this.informationsPerSpace = Math.max(1, informationsPerSpace);
+        this.blueprintBytes = blueprintBytes;
+        this.occupationsPerRoom = occupationsPerRoom;
+        final long spaces =
+                campuses + (long) campuses * buildingsPerCampus * (1 + floorsPerBuilding * (1 + (long) roomsPerFloor));
+        if (spaces > 0xFFFF) {
+            throw new IllegalArgumentException("at most 65535 spaces can be generated, asked for " + spaces);
+        }
+    }
+
+    public void writeClassifications(File file) throws IOException {
+        final List<Map<String, Object>> roots = new ArrayList<>();
+        for (int code = 1; code <= ROOT_CLASSIFICATIONS; code++) {
+            final List<Map<String, Object>> childs = new ArrayList<>();
+            for (int child = 1; child <= CHILD_CLASSIFICATIONS; child++) {
+                childs.add(classification(child, "Classificação " + code + "." + child, new ArrayList<Map<String, Object>>()));
+            }
+            roots.add(classification(code, "Classificação " + code, childs));
+        }
+        Files.write(new Gson().toJson(roots), file, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Object> classification(int code, String name, List<Map<String, Object>> childs) {
+        final Map<String, Object> bean = new LinkedHashMap<>();
+        bean.put("code", code);
+        bean.put("name", name);
+        bean.put("childs", childs);
+        return bean;
+    }
+
+    /**
+     * Creates the groups and the space tree the dump refers to, level by level in transactions of batchSize spaces, and writes
+     * the spaces dump describing them.
+     */
+    public void seedSpaces(ImportSpacesTask task, File file, int batchSize) throws IOException {
+        FenixFramework.getTransactionManager().withTransaction(new CallableWithoutException<Void>() {
+            @Override
+            public Void call() {
+                groupIds.clear();
+                for (PersistentGroup group : new PersistentGroup[] { AnyoneGroup.get().toPersistentGroup(),
+                        LoggedGroup.get().toPersistentGroup() }) {
+                    groupIds.add(group.getExternalId());
+                }
+                return null;
+            }
+        });
+
+        final List<SeededSpace> all = new ArrayList<>();
+        List<SeededSpace> level = seedLevel(task, null, "Campus", campuses, batchSize);
+        all.addAll(level);
+        level = seedLevel(task, level, "Building", buildingsPerCampus, batchSize);
+        all.addAll(level);
+        level = seedLevel(task, level, "Floor", floorsPerBuilding, batchSize);
+        all.addAll(level);
+        level = seedLevel(task, level, "Room", roomsPerFloor, batchSize);
+        all.addAll(level);
+        for (SeededSpace room : level) {
+            roomIds.add(room.legacyId);
+        }
+
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (SeededSpace seeded : all) {
+                writeSpace(writer, seeded);
+            }
+            writer.endArray();
+        }
+    }
+
+    private List<SeededSpace> seedLevel(final ImportSpacesTask task, List<SeededSpace> parents, final String type,
+            final int perParent, int batchSize) {
+        final List<SeededSpace> seeded = new ArrayList<>();
+        final List<SeededSpace> parentList = parents == null ? Collections.<SeededSpace> singletonList(null) : parents;
+        final int parentsPerBatch = Math.max(1, batchSize / Math.max(1, perParent));
+        for (int from = 0; from < parentList.size(); from += parentsPerBatch) {
+            final List<SeededSpace> batch = parentList.subList(from, Math.min(parentList.size(), from + parentsPerBatch));
+            seeded.addAll(FenixFramework.getTransactionManager().withTransaction(
+                    new CallableWithoutException<List<SeededSpace>>() {
+                        @Override
+                        public List<SeededSpace> call() {
+                            final List<SeededSpace> created = new ArrayList<>();
+                            for (SeededSpace parent : batch) {
+                                for (int i = 0; i < perParent; i++) {
+                                    created.add(seed(task, parent, type, i));
+                                }
+                            }
+                            return created;
+                        }
+                    }));
+        }
+        return seeded;
+    }
+
+    private SeededSpace seed(ImportSpacesTask task, SeededSpace parent, String type, int index) {
+        final InformationBean bean = new InformationBean();
+        bean.setName(type + " " + index);
+        bean.setValidFrom(new DateTime(1990, 1, 1, 0, 0));
+        bean.setClassification(SpaceClassification.get(classificationCode(type)));
+        final Space space = new Space(parent == null ? null : parent.space, bean);
+
+        final long oid = Long.parseLong(space.getExternalId());
+        final String legacyId = Long.toString((LEGACY_SPACE_CID << 32) + (oid & 0xFFFF));
+        if (!space.getExternalId().equals(task.getNewSpaceId(legacyId))) {
+            throw new IllegalStateException("can't derive a legacy id for space " + space.getExternalId());
+        }
+        return new SeededSpace(legacyId, parent == null ? null : parent.legacyId, type, space);
+    }
+
+    private String classificationCode(String type) {
+        final SpaceType spaceType = SpaceType.ofDumpType(type);
+        return spaceType == null ? roomClassificationCode() : spaceType.getAbsoluteCode();
+    }
+
+    private String roomClassificationCode() {
+        return (1 + random.nextInt(ROOT_CLASSIFICATIONS - 2)) + "." + (1 + random.nextInt(CHILD_CLASSIFICATIONS));
+    }
+
+    private void writeSpace(JsonWriter writer, SeededSpace seeded) throws IOException {
+        final boolean room = "Room".equals(seeded.type);
+        writer.beginObject();
+        writer.name("parentExternalId").value(seeded.parentLegacyId);
+        writer.name("externalId").value(seeded.legacyId);
+        writer.name("createdOn").value("01/01/1990");
+        writer.name("examCapacity").value(room ? random.nextInt(60) : null);
+        writer.name("normalCapacity").value(room ? 10 + random.nextInt(100) : null);
+        writer.name("type").value(seeded.type);
+        writer.name("occupationGroup").value(randomGroup());
+        writer.name("managementSpaceGroup").value(randomGroup());
+        writer.name("lessonOccupationsAccessGroup").value(randomGroup());
+        writer.name("writtenEvaluationOccupationsAccessGroup").value(randomGroup());
+
+        writer.name("informations").beginArray();
+        for (int i = 0; i < informationsPerSpace; i++) {
+            writer.beginObject();
+            writer.name("capacity").value(room ? 10 + random.nextInt(100) : null);
+            writer.name("validFrom").value(validFrom(i));
+            writer.name("validUntil").value(validUntil(i));
+            writer.name("area").value(10 + random.nextInt(200));
+            writer.name("identification").value(seeded.type.substring(0, 1) + seeded.legacyId);
+            writer.name("classificationCode").value(room ? roomClassificationCode() : null);
+            writer.name("name").value(seeded.type + " " + seeded.legacyId + " v" + i);
+            if (room) {
+                writer.name("description").value("Generated room");
+                writer.name("doorNumber").value(Integer.toString(random.nextInt(500)));
+                writer.name("ageQuality").value(random.nextBoolean());
+                writer.name("heightQuality").value(random.nextBoolean());
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name("blueprints").beginArray();
+        if (blueprintBytes > 0) {
+            for (int i = 0; i < informationsPerSpace; i++) {
+                final byte[] raw = new byte[blueprintBytes];
+                random.nextBytes(raw);
+                writer.beginObject();
+                writer.name("validFrom").value(validFrom(i));
+                writer.name("validUntil").value(validUntil(i));
+                writer.name("creationPerson").value("user" + random.nextInt(1000));
+                writer.name("raw").value(BaseEncoding.base64().encode(raw));
+                writer.endObject();
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static String validFrom(int version) {
+        return "01/01/" + (2000 + version);
+    }
+
+    private String validUntil(int version) {
+        return version == informationsPerSpace - 1 ? null : "31/12/" + (2000 + version);
+    }
+
+    private String randomGroup() {
+        return random.nextInt(3) == 0 ? null : groupIds.get(random.nextInt(groupIds.size()));
+    }
+
+    public void writeOccupations(File file) throws IOException {
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (String room : roomIds) {
+                for (int i = 0; i < occupationsPerRoom; i++) {
+                    final int day = 1 + random.nextInt(28);
+                    final int hour = 8 + random.nextInt(10);
+                    final String date = String.format("%02d/03/2014", day);
+                    final String begin = String.format("%02d:00:00", hour);
+                    final String end = String.format("%02d:00:00", hour + 1);
+                    writer.beginObject();
+                    writer.name("title").value("Occupation " + i);
+                    writer.name("description").value("Generated occupation of " + room);
+                    writer.name("frequency").nullValue();
+                    writer.name("beginDate").value(date);
+                    writer.name("endDate").value(date);
+                    writer.name("beginTime").value(begin);
+                    writer.name("endTime").value(end);
+                    writer.name("intervals").beginArray().beginObject();
+                    writer.name("start").value(date + " " + begin);
+                    writer.name("end").value(date + " " + end);
+                    writer.endObject().endArray();
+                    writer.name("spaces").beginArray().value(room).endArray();
+                    writer.endObject();
+                }
+            }
+            writer.endArray();
+        }
+    }
+
+    public int getRoomCount() {
+        return roomIds.size();
+    }
+}
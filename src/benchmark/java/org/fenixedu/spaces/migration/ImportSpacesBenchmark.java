@@ -0,0 +1,173 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.fenixedu.spaces.migration.SpaceHierarchy.Ordering;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+import com.google.common.io.Files;
+
+/**
+ * End to end benchmark of the spaces import on a throwaway embedded MariaDB, so import strategies can be compared on a single
+ * box without a Fenix deployment. Each run starts from an empty database: it imports a generated classification catalogue, seeds
+ * the legacy spaces and groups, generates the dumps, and runs the spaces and occupations phases, reporting wall time, commits/s
+ * and the heap high water mark.
+ *
+ * Run with the benchmark profile, which adds the embedded database and the matching fenix-framework-jvstm-ojb.properties:
+ *
+ * <pre>
+ * mvn -Pbenchmark compile exec:java -Dexec.args="--rooms 20 --ordering subtree --workers 4"
+ * </pre>
+ *
+ * Seeding creates each space with one information of its own, valid from before any in the dump, which reconciliation leaves out
+ * of the count like the informations legacy spaces already have.
+ */
+public class ImportSpacesBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportSpacesBenchmark.class);
+
+    private static final int DB_PORT = 33306;
+    private static final String DB_NAME = "fenix_benchmark";
+
+    public static void main(String[] args) throws Exception {
+        long seed = 42;
+        int campuses = 2, buildings = 10, floors = 5, rooms = 20, informations = 3, blueprintBytes = 4096, occupations = 2;
+        final ImportSpacesConfig config = new ImportSpacesConfig();
+        config.setPhases(EnumSet.of(ImportPhase.SPACES, ImportPhase.OCCUPATIONS));
+        File out = Files.createTempDir();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+            case "--seed":
+                seed = Long.parseLong(value);
+                break;
+            case "--campuses":
+                campuses = Integer.parseInt(value);
+                break;
+            case "--buildings":
+                buildings = Integer.parseInt(value);
+                break;
+            case "--floors":
+                floors = Integer.parseInt(value);
+                break;
+            case "--rooms":
+                rooms = Integer.parseInt(value);
+                break;
+            case "--informations":
+                informations = Integer.parseInt(value);
+                break;
+            case "--blueprint-bytes":
+                blueprintBytes = Integer.parseInt(value);
+                break;
+            case "--occupations":
+                occupations = Integer.parseInt(value);
+                break;
+            case "--batch-size":
+                config.setBatchSize(Integer.parseInt(value));
+                break;
+            case "--workers":
+                config.setWorkers(Integer.parseInt(value));
+                break;
+            case "--ordering":
+                config.setOrdering(Ordering.valueOf(value.toUpperCase(Locale.ROOT)));
+                break;
+            case "--out":
+                out = new File(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        out.mkdirs();
+        config.setInputDir(out);
+        config.setMetricsFile(new File(out, "metrics.json"));
+        config.setProgressInterval(0);
+
+        final DBConfigurationBuilder dbConfig = DBConfigurationBuilder.newBuilder();
+        dbConfig.setPort(DB_PORT);
+        dbConfig.setDataDir(new File(out, "db").getAbsolutePath());
+        final DB db = DB.newEmbeddedDB(dbConfig.build());
+        db.start();
+        try {
+            db.createDB(DB_NAME);
+
+            final BenchmarkDataGenerator generator =
+                    new BenchmarkDataGenerator(seed, campuses, buildings, floors, rooms, informations, blueprintBytes,
+                            occupations);
+            final Consumer<String> log = new Consumer<String>() {
+                @Override
+                public void accept(String message) {
+                    logger.info(message);
+                }
+            };
+
+            generator.writeClassifications(config.getClassificationsFile());
+            final ImportSpacesConfig classifications = new ImportSpacesConfig();
+            classifications.setInputDir(out);
+            classifications.setPhases(EnumSet.of(ImportPhase.CLASSIFICATIONS));
+            final ImportSpacesTask setup = new ImportSpacesTask(classifications);
+            setup.setLogSink(log);
+            setup.runPhases();
+
+            long start = System.currentTimeMillis();
+            generator.seedSpaces(setup, config.getSpacesFile(), config.getBatchSize());
+            generator.writeOccupations(config.getOccupationsFile());
+            logger.info(String.format("Seeded %d rooms and dumps in %s in %d ms", generator.getRoomCount(), out,
+                    System.currentTimeMillis() - start));
+
+            // the pool peaks, and the heap samples of a task created after seeding, only cover the import
+            resetHeapPoolPeaks();
+            final ImportSpacesTask task = new ImportSpacesTask(config);
+            task.setLogSink(log);
+            start = System.currentTimeMillis();
+            task.runPhases();
+            final long wall = System.currentTimeMillis() - start;
+
+            final ImportMetrics metrics = task.getMetrics();
+            logger.info(String.format("ordering %s, batch size %d, workers %d: %d ms wall, heap peak %d MB, %d restarts",
+                    config.getOrdering(), config.getBatchSize(), config.getWorkers(), wall, metrics.getHeapPeak() >> 20,
+                    metrics.getTransactions().getRestarts()));
+            for (Map.Entry<String, Object> phase : metrics.toMap().entrySet()) {
+                logger.info(String.format("%s %s", phase.getKey(), phase.getValue()));
+            }
+            for (MemoryPoolMXBean pool : heapPools()) {
+                logger.info(String.format("heap pool %s peak %d MB", pool.getName(), pool.getPeakUsage().getUsed() >> 20));
+            }
+        } finally {
+            FenixFramework.shutdown();
+            db.stop();
+        }
+    }
+
+    private static void resetHeapPoolPeaks() {
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        final List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+}
@@ -0,0 +1,25 @@
+package org.fenixedu.spaces.migration;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+/**
+ * A node of the classification catalogue, as found in classifications.json.
+ */
+public class ClassificationBean {
+    public String name;
+    public Set<ClassificationBean> childs;
+    public Integer code;
+
+    public ClassificationBean(Integer code, String name, Set<ClassificationBean> childs) {
+        super();
+        this.code = code;
+        this.name = name;
+        this.childs = childs;
+    }
+
+    public ClassificationBean(Integer code, String name) {
+        this(code, name, Sets.<ClassificationBean> newHashSet());
+    }
+}
@@ -0,0 +1,286 @@
+package org.fenixedu.spaces.migration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.fenixedu.commons.i18n.LocalizedString;
+import org.fenixedu.spaces.domain.MetadataSpec;
+import org.fenixedu.spaces.domain.SpaceClassification;
+
+import com.google.common.collect.Multimap;
+import com.google.gson.JsonElement;
+
+/**
+ * Builds a classification catalogue in two steps. The absolute code, parent and depth of every node of the
+ * {@link ClassificationBean} tree are first worked out in memory, with the subtrees handled in parallel, and the
+ * {@link SpaceClassification}s are then created level by level, parents first, in the caller's transaction.
+ *
+ * The result maps each absolute code to its classification, so nothing has to walk the tree afterwards to find a code. The
+ * same plan can instead be diffed against an existing catalogue, see {@link #upsert(SpaceClassification, Map)}.
+ */
+public class ClassificationTreeBuilder {
+
+    /**
+     * Subtrees smaller than this are planned in the current thread.
+     */
+    private static final int FORK_THRESHOLD = 64;
+
+    static class Node {
+        final String code;
+        final String absoluteCode;
+        final String parentCode;
+        final String name;
+        final int depth;
+
+        Node(String code, String absoluteCode, String parentCode, String name, int depth) {
+            this.code = code;
+            this.absoluteCode = absoluteCode;
+            this.parentCode = parentCode;
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private final Locale locale;
+    private final List<List<Node>> levels = new ArrayList<>();
+
+    private int created;
+    private int renamed;
+
+    /**
+     * Plans the given trees, to be created under the classification with the given absolute code, or as roots if it is null.
+     */
+    public ClassificationTreeBuilder(Collection<ClassificationBean> roots, String parentCode, Locale locale) {
+        this.locale = locale;
+        final List<Node> nodes = ForkJoinPool.commonPool().invoke(new PlanTask(roots, parentCode, parentCode == null ? 0 : 1));
+        for (Node node : nodes) {
+            while (levels.size() <= node.depth) {
+                levels.add(new ArrayList<Node>());
+            }
+            levels.get(node.depth).add(node);
+        }
+    }
+
+    private static class PlanTask extends RecursiveTask<List<Node>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Collection<ClassificationBean> beans;
+        private final String parentCode;
+        private final int depth;
+
+        PlanTask(Collection<ClassificationBean> beans, String parentCode, int depth) {
+            this.beans = beans;
+            this.parentCode = parentCode;
+            this.depth = depth;
+        }
+
+        @Override
+        protected List<Node> compute() {
+            final List<Node> nodes = new ArrayList<>();
+            final List<PlanTask> forks = new ArrayList<>();
+            for (ClassificationBean bean : beans) {
+                final String code = bean.code.toString();
+                final String absoluteCode = parentCode == null ? code : parentCode + "." + code;
+                nodes.add(new Node(code, absoluteCode, parentCode, bean.name, depth));
+                if (bean.childs == null || bean.childs.isEmpty()) {
+                    continue;
+                }
+                final PlanTask child = new PlanTask(bean.childs, absoluteCode, depth + 1);
+                if (size(bean) > FORK_THRESHOLD) {
+                    child.fork();
+                    forks.add(child);
+                } else {
+                    nodes.addAll(child.compute());
+                }
+            }
+            for (PlanTask fork : forks) {
+                nodes.addAll(fork.join());
+            }
+            return nodes;
+        }
+
+        private static int size(ClassificationBean bean) {
+            int size = 1;
+            if (bean.childs != null) {
+                for (ClassificationBean child : bean.childs) {
+                    size += size(child);
+                    if (size > FORK_THRESHOLD) {
+                        break;
+                    }
+                }
+            }
+            return size;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<Node> level : levels) {
+            size += level.size();
+        }
+        return size;
+    }
+
+    /**
+     * Creates the planned classifications under the given parent. Must run inside a write transaction.
+     *
+     * @return the created classifications by absolute code, in level order
+     */
+    public Map<String, SpaceClassification> create(SpaceClassification parent) {
+        final Map<String, SpaceClassification> byCode = new LinkedHashMap<>();
+        for (List<Node> level : levels) {
+            for (Node node : level) {
+                final SpaceClassification nodeParent = node.parentCode == null ? null : byCode.get(node.parentCode);
+                final LocalizedString name = new LocalizedString.Builder().with(locale, node.name).build();
+                byCode.put(node.absoluteCode, new SpaceClassification(node.code, name, nodeParent == null ? parent
+                        : nodeParent));
+            }
+        }
+        return byCode;
+    }
+
+    /**
+     * Creates the planned classifications missing from the given catalogue and renames, in the builder's locale, the ones whose
+     * name changed. Everything else is left untouched, so running it again with the same plan writes nothing. Must run inside
+     * a write transaction.
+     *
+     * @param existing the catalogue by absolute code, as returned by {@link #index(Collection)}; the created classifications
+     *            are added to it
+     * @return the created and renamed classifications by absolute code, in level order
+     */
+    public Map<String, SpaceClassification> upsert(SpaceClassification parent, Map<String, SpaceClassification> existing) {
+        return upsert(parent, existing, true);
+    }
+
+    /**
+     * Creates the planned classifications missing from the given catalogue, leaving the existing ones as they are whatever
+     * their names. Used to complete a catalogue that may not have come from this plan. Must run inside a write transaction.
+     *
+     * @param existing the catalogue by absolute code, as returned by {@link #index(Collection)}; the created classifications
+     *            are added to it
+     * @return the created classifications by absolute code, in level order
+     */
+    public Map<String, SpaceClassification> addMissing(SpaceClassification parent, Map<String, SpaceClassification> existing) {
+        return upsert(parent, existing, false);
+    }
+
+    private Map<String, SpaceClassification> upsert(SpaceClassification parent, Map<String, SpaceClassification> existing,
+            boolean rename) {
+        final Map<String, SpaceClassification> changed = new LinkedHashMap<>();
+        created = 0;
+        renamed = 0;
+        for (List<Node> level : levels) {
+            for (Node node : level) {
+                SpaceClassification classification = existing.get(node.absoluteCode);
+                if (classification == null) {
+                    final SpaceClassification nodeParent = node.parentCode == null ? null : existing.get(node.parentCode);
+                    final LocalizedString name = new LocalizedString.Builder().with(locale, node.name).build();
+                    classification = new SpaceClassification(node.code, name, nodeParent == null ? parent : nodeParent);
+                    existing.put(node.absoluteCode, classification);
+                    created++;
+                } else if (rename && !Objects.equals(classification.getName().getContent(locale), node.name)) {
+                    classification.setName(classification.getName().with(locale, node.name));
+                    renamed++;
+                } else {
+                    continue;
+                }
+                changed.put(node.absoluteCode, classification);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Classifications created by the last {@link #upsert(SpaceClassification, Map)} or
+     * {@link #addMissing(SpaceClassification, Map)}.
+     */
+    public int getCreated() {
+        return created;
+    }
+
+    /**
+     * Classifications renamed by the last {@link #upsert(SpaceClassification, Map)}.
+     */
+    public int getRenamed() {
+        return renamed;
+    }
+
+    /**
+     * The metadata specs of each category of classification, together with their json form, worked out once so that each
+     * classification is compared against it rather than against the specs converted again for every one of them.
+     */
+    public static class MetadataSpecs {
+        private final Multimap<String, MetadataSpec> specs;
+        private final Map<String, Set<JsonElement>> json = new HashMap<>();
+
+        public MetadataSpecs(Multimap<String, MetadataSpec> specs) {
+            this.specs = specs;
+            for (String category : specs.keySet()) {
+                json.put(category, json(specs.get(category)));
+            }
+        }
+
+        /**
+         * Sets the specs of the category on the classification unless it already has the same ones, compared in full so that a
+         * changed type, label, required flag or default value is written too, while re-runs leave the classification alone.
+         *
+         * @return true if the specs were written
+         */
+        public boolean update(SpaceClassification classification, String category) {
+            final Collection<MetadataSpec> categorySpecs = specs.get(category);
+            if (categorySpecs.isEmpty() || json.get(category).equals(json(classification.getMetadataSpecs()))) {
+                return false;
+            }
+            classification.setMetadataSpecs(categorySpecs);
+            return true;
+        }
+    }
+
+    private static Set<JsonElement> json(Collection<MetadataSpec> specs) {
+        final Set<JsonElement> json = new HashSet<>();
+        if (specs != null) {
+            for (MetadataSpec spec : specs) {
+                json.add(spec.toJson());
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Maps every classification under the given roots to its absolute code, walking the tree once from the top.
+     */
+    public static Map<String, SpaceClassification> index(Collection<SpaceClassification> roots) {
+        final Map<String, SpaceClassification> byCode = new LinkedHashMap<>();
+        List<SpaceClassification> level = new ArrayList<>(roots);
+        List<String> codes = new ArrayList<>(Collections.<String> nCopies(level.size(), null));
+        while (!level.isEmpty()) {
+            final List<SpaceClassification> nextLevel = new ArrayList<>();
+            final List<String> nextCodes = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                final SpaceClassification classification = level.get(i);
+                final String absoluteCode =
+                        codes.get(i) == null ? classification.getCode() : codes.get(i) + "." + classification.getCode();
+                byCode.put(absoluteCode, classification);
+                for (SpaceClassification child : classification.getChildrenSet()) {
+                    nextLevel.add(child);
+                    nextCodes.add(absoluteCode);
+                }
+            }
+            level = nextLevel;
+            codes = nextCodes;
+        }
+        return byCode;
+    }
+}
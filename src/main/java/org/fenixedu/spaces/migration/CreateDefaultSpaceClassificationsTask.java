@@ -1,10 +1,12 @@
 package org.fenixedu.spaces.migration;
 
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.scheduler.custom.CustomTask;
@@ -17,7 +19,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 
 @SuppressWarnings("unused")
 public class CreateDefaultSpaceClassificationsTask extends CustomTask {
@@ -28,6 +29,7 @@ public class CreateDefaultSpaceClassificationsTask extends CustomTask {
     final Locale LocaleEN = Locale.forLanguageTag("en-GB");
 
     Multimap<String, MetadataSpec> codeToMetadataSpecMap;
+    ClassificationTreeBuilder.MetadataSpecs metadataSpecs;
 
     private void initMetadataSpecMap() {
         codeToMetadataSpecMap = HashMultimap.create();
@@ -71,103 +73,123 @@ public class CreateDefaultSpaceClassificationsTask extends CustomTask {
                 "Room",
                 new MetadataSpec("examCapacity", new LocalizedString.Builder().with(LocalePT, "Capacidade Exame")
                         .with(LocaleEN, "Exam Capacity").build(), java.lang.Integer.class, true, "0"));
-
+        metadataSpecs = new ClassificationTreeBuilder.MetadataSpecs(codeToMetadataSpecMap);
     }
 
-    private static class ClassificationBean {
-        public String name;
-        public Set<ClassificationBean> childs;
-        public Integer code;
-
-        public ClassificationBean(Integer code, String name, Set<ClassificationBean> childs) {
-            super();
-            this.code = code;
-            this.name = name;
-            this.childs = childs;
-        }
+    private final boolean upsert;
+    private Map<String, SpaceClassification> classificationsByCode;
 
-        public ClassificationBean(Integer code, String name) {
-            this(code, name, Sets.<ClassificationBean> newHashSet());
-        }
+    private ClassificationTreeBuilder defaultClassificationBuilder() {
+        ClassificationBean bean = new ClassificationBean(1, "Outros", new HashSet<>());
+        return new ClassificationTreeBuilder(Collections.singleton(bean), null, LocalePT);
     }
 
     private void createDefaultClassification() {
-        ClassificationBean bean = new ClassificationBean(1, "Outros", new HashSet<>());
-        create(null, bean);
+        classificationsByCode = defaultClassificationBuilder().create(null);
     }
 
-    final String[] en = new String[] { "Campus", "Room Subdivision", "Building", "Floor" };
+    /**
+     * Completes the existing catalogue, indexed once by absolute code, with the default classifications and space types it lacks.
+     * The existing classifications may come from an import rather than the default set, so none of them is renamed.
+     *
+     * @return the classifications created
+     */
+    private Map<String, SpaceClassification> upsertDefaultClassification() {
+        classificationsByCode = ClassificationTreeBuilder.index(Bennu.getInstance().getRootClassificationSet());
+        final ClassificationTreeBuilder builder = defaultClassificationBuilder();
+        final Map<String, SpaceClassification> created = new LinkedHashMap<>(builder.addMissing(null, classificationsByCode));
+        taskLog("Created %d of %d classifications\n", builder.getCreated(), builder.size());
+        created.putAll(initSpaceTypes());
+        return created;
+    }
 
-    private void initAllClassificationsWithRoomMetadata() {
+    private int initAllClassificationsWithRoomMetadata(Collection<SpaceClassification> classifications) {
         taskLog("Init all classifications with room metadata");
-        for (SpaceClassification classification : SpaceClassification.all()) {
+        int updated = 0;
+        for (SpaceClassification classification : classifications) {
             String content = classification.getName().getContent(LocaleEN);
-            if (!Arrays.asList(en).contains(content)) {
+            if (SpaceType.ofNameEN(content) == null) {
                 content = "Room";
             }
             if (!Strings.isNullOrEmpty(content)) {
-                Collection<MetadataSpec> specs = codeToMetadataSpecMap.get(content);
-                if (specs != null && !specs.isEmpty()) {
-                    classification.setMetadataSpecs(specs);
+                if (metadataSpecs.update(classification, content)) {
+                    updated++;
                 }
             }
         }
+        return updated;
     }
 
-    private void create(SpaceClassification parent, ClassificationBean bean) {
-        final LocalizedString name = new LocalizedString.Builder().with(LocalePT, bean.name).build();
-        final String code = bean.code.toString();
-        final SpaceClassification spaceClassification = new SpaceClassification(code, name, parent);
-        for (ClassificationBean child : bean.childs) {
-            create(spaceClassification, child);
-        }
-    }
-
-    public void initSpaceTypes() {
+    /**
+     * Creates the space types missing under other spaces. Classifications already at their codes are left as they are.
+     *
+     * @return the space types created
+     */
+    public Map<String, SpaceClassification> initSpaceTypes() {
         taskLog("Init space types");
-        final String[] pt = new String[] { "Campus", "Subdivisão de Sala", "Edifício", "Piso" };
-        final String[] codes = new String[] { "1", "2", "3", "4" };
-
-        final SpaceClassification otherSpaces = SpaceClassification.get("11"); // other spaces
+        final SpaceClassification otherSpaces = classificationsByCode.get(SpaceType.PARENT_CODE);
 
         if (otherSpaces == null) {
             throw new UnsupportedOperationException("can't find other spaces");
         }
 
-        for (int i = 0; i < codes.length; i++) {
-            String name_EN = en[i];
-            String name_PT = pt[i];
-            String code = codes[i];
-            create(otherSpaces, name_EN, name_PT, code);
+        final Map<String, SpaceClassification> created = new LinkedHashMap<>();
+        for (SpaceType type : SpaceType.values()) {
+            if (!classificationsByCode.containsKey(type.getAbsoluteCode())) {
+                created.put(type.getAbsoluteCode(), create(otherSpaces, type.getNameEN(), type.getNamePT(), type.getCode()));
+            }
         }
+        classificationsByCode.putAll(created);
+        return created;
     }
 
-    public void create(SpaceClassification parent, String name_EN, String name_PT, String code) {
+    public SpaceClassification create(SpaceClassification parent, String name_EN, String name_PT, String code) {
         final LocalizedString name = new LocalizedString.Builder().with(LocalePT, name_PT).with(LocaleEN, name_EN).build();
         final SpaceClassification spaceClassification = new SpaceClassification(code, name, parent, null);
         spaceClassification.setMetadataSpecs(codeToMetadataSpecMap.get(code));
+        return spaceClassification;
     }
 
-    private void logAllImportedClassifications() {
-        for (SpaceClassification classification : SpaceClassification.all()) {
-            taskLog("code %s name %s\n", classification.getAbsoluteCode(), classification.getName().json().toString());
+    private void logAllImportedClassifications(Map<String, SpaceClassification> classifications) {
+        for (Map.Entry<String, SpaceClassification> entry : new TreeMap<>(classifications).entrySet()) {
+            taskLog("code %s name %s\n", entry.getKey(), entry.getValue().getName().json().toString());
         }
     }
 
     public CreateDefaultSpaceClassificationsTask() {
+        this(false);
+    }
+
+    /**
+     * @param upsert whether to add what is missing of the default catalogue to existing classifications instead of only
+     *            creating it when there are none
+     */
+    public CreateDefaultSpaceClassificationsTask(boolean upsert) {
+        this.upsert = upsert;
         initMetadataSpecMap();
     };
 
     @Override
     public void runTask() throws Exception {
-        if (Bennu.getInstance().getRootClassificationSet().isEmpty()) {
+        final Object event = MigrationEvents.beginPhase();
+        if (upsert) {
+            // only what was just created, the specs of the existing classifications are theirs to keep
+            final Map<String, SpaceClassification> created = upsertDefaultClassification();
+            taskLog("Set metadata specs of %d classifications\n", initAllClassificationsWithRoomMetadata(created.values()));
+            logAllImportedClassifications(created);
+        } else if (Bennu.getInstance().getRootClassificationSet().isEmpty()) {
             taskLog("No classifications, create default classifications");
             createDefaultClassification();
             initSpaceTypes();
-            initAllClassificationsWithRoomMetadata();
+            initAllClassificationsWithRoomMetadata(classificationsByCode.values());
+            logAllImportedClassifications(classificationsByCode);
         } else {
             taskLog("classifications already imported");
+            classificationsByCode = ClassificationTreeBuilder.index(Bennu.getInstance().getRootClassificationSet());
+            logAllImportedClassifications(classificationsByCode);
         }
-        logAllImportedClassifications();
+        MigrationEvents.end(event);
+        MigrationEvents.commitPhase(event, getClass().getSimpleName(), ImportPhase.CLASSIFICATIONS.name(),
+                classificationsByCode.size());
     }
 }
\ No newline at end of file
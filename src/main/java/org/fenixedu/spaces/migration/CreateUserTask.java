@@ -1,18 +1,192 @@
 package org.fenixedu.spaces.migration;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.scheduler.custom.CustomTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.CallableWithoutException;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+/**
+ * Provisions the accounts a migration rehearsal needs: the usernames listed in usernames.txt, one per line, and the creators of
+ * the blueprints in the spaces dump. Users that already exist are skipped, the rest are created in transactions of the
+ * configured batch size.
+ *
+ * The scheduler runs the task inside a transaction of its own, in which the batch transactions would only be nested and commit
+ * together when the task returns, so the users are created in a separate thread where each batch commits as it ends.
+ */
 @SuppressWarnings("unused")
 public class CreateUserTask extends CustomTask {
 
     private static final Logger logger = LoggerFactory.getLogger(CreateUserTask.class);
 
+    private static class SpaceUsersBean {
+        public Set<BlueprintUsersBean> blueprints;
+    }
+
+    private static class BlueprintUsersBean {
+        public String creationPerson;
+    }
+
+    private final ImportSpacesConfig config;
+    private final TransactionMonitor transactions = new TransactionMonitor();
+
+    public CreateUserTask() {
+        this(new ImportSpacesConfig());
+    }
+
+    public CreateUserTask(ImportSpacesConfig config) {
+        this.config = config;
+    }
+
     @Override
     public void runTask() throws Exception {
-        User user = new User("ypto");
+        final Object event = MigrationEvents.beginPhase();
+
+        final Set<String> usernames = new LinkedHashSet<>();
+        readUsernamesFile(config.getUsernamesFile(), usernames);
+        readBlueprintCreators(config.getSpacesFile(), usernames);
+        taskLog("%d distinct usernames\n", usernames.size());
+
+        final int created = outsideTaskTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                final Set<String> existing = existingUsernames();
+                final List<String> missing = new ArrayList<>();
+                for (String username : usernames) {
+                    if (!existing.contains(username)) {
+                        missing.add(username);
+                    }
+                }
+                taskLog("%d users already exist, creating %d\n", usernames.size() - missing.size(), missing.size());
+                return createUsers(missing);
+            }
+        });
+
+        for (String line : transactions.lines()) {
+            taskLog("%s\n", line);
+        }
+        MigrationEvents.end(event);
+        MigrationEvents.commitPhase(event, getClass().getSimpleName(), "users", created);
+    }
+
+    private <T> T outsideTaskTransaction(Callable<T> command) throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(command).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readUsernamesFile(File file, Set<String> usernames) throws IOException {
+        if (!file.exists()) {
+            taskLog("No usernames file %s\n", file);
+            return;
+        }
+        final int before = usernames.size();
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    usernames.add(line);
+                }
+            }
+        }
+        taskLog("%d usernames from %s\n", usernames.size() - before, file);
+    }
+
+    private void readBlueprintCreators(File file, Set<String> usernames) throws IOException {
+        if (!file.exists()) {
+            taskLog("No spaces dump %s\n", file);
+            return;
+        }
+        final int before = usernames.size();
+        try (JsonArrayReader<SpaceUsersBean> reader =
+                new JsonArrayReader<>(new Gson(), new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
+                        SpaceUsersBean.class)) {
+            while (reader.hasNext()) {
+                final SpaceUsersBean space = reader.next();
+                if (space == null || space.blueprints == null) {
+                    continue;
+                }
+                for (BlueprintUsersBean blueprint : space.blueprints) {
+                    if (!Strings.isNullOrEmpty(blueprint.creationPerson)) {
+                        usernames.add(blueprint.creationPerson.trim());
+                    }
+                }
+            }
+        }
+        taskLog("%d more usernames from blueprint creators in %s\n", usernames.size() - before, file);
     }
 
-}
\ No newline at end of file
+    /**
+     * All the usernames in the system, read once instead of looking each candidate up.
+     */
+    private Set<String> existingUsernames() {
+        return transactions.withTransaction("existing users", new CallableWithoutException<Set<String>>() {
+            @Override
+            public Set<String> call() {
+                final Set<String> usernames = new HashSet<>();
+                for (User user : Bennu.getInstance().getUserSet()) {
+                    usernames.add(user.getUsername());
+                }
+                return usernames;
+            }
+        });
+    }
+
+    private int createUsers(List<String> usernames) {
+        final ProgressTracker progress =
+                new ProgressTracker("USERS", usernames.size(), config.getProgressInterval(), config.getStatusFile(),
+                        new Consumer<String>() {
+                            @Override
+                            public void accept(String message) {
+                                taskLog("%s\n", message);
+                            }
+                        });
+        try {
+            for (final List<String> batch : Lists.partition(usernames, config.getBatchSize())) {
+                transactions.withTransaction("users", new CallableWithoutException<Void>() {
+                    @Override
+                    public Void call() {
+                        for (String username : batch) {
+                            new User(username);
+                        }
+                        return null;
+                    }
+                });
+                progress.processed(batch.size());
+            }
+        } finally {
+            progress.finish();
+        }
+        return (int) progress.getProcessed();
+    }
+}
@@ -0,0 +1,175 @@
+package org.fenixedu.spaces.migration;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder events behind {@link MigrationEvents}. Only loaded once the jdk.jfr API is known to be there, so nothing
+ * else may refer to this class; events are handed around as plain objects.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    static Object beginPhase() {
+        final PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    static Object beginPartitionCommit() {
+        final PartitionCommitEvent event = new PartitionCommitEvent();
+        event.begin();
+        return event;
+    }
+
+    static Object beginBlueprintDecode() {
+        final BlueprintDecodeEvent event = new BlueprintDecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    static void end(Object event) {
+        ((Event) event).end();
+    }
+
+    static boolean shouldCommit(Object event) {
+        return ((Event) event).shouldCommit();
+    }
+
+    static void commitPhase(Object event, String task, String phase, long processed) {
+        final PhaseEvent phaseEvent = (PhaseEvent) event;
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.task = task;
+            phaseEvent.phase = phase;
+            phaseEvent.processed = processed;
+            phaseEvent.commit();
+        }
+    }
+
+    static void commitPartitionCommit(Object event, String transaction, int beans, long bytes, int retries, int quarantined) {
+        final PartitionCommitEvent partitionEvent = (PartitionCommitEvent) event;
+        if (partitionEvent.shouldCommit()) {
+            partitionEvent.transaction = transaction;
+            partitionEvent.beans = beans;
+            partitionEvent.bytes = bytes;
+            partitionEvent.retries = retries;
+            partitionEvent.quarantined = quarantined;
+            partitionEvent.commit();
+        }
+    }
+
+    static void commitBlueprintDecode(Object event, String space, long encoded, long decoded) {
+        final BlueprintDecodeEvent decodeEvent = (BlueprintDecodeEvent) event;
+        if (decodeEvent.shouldCommit()) {
+            decodeEvent.space = space;
+            decodeEvent.encoded = encoded;
+            decodeEvent.decoded = decoded;
+            decodeEvent.commit();
+        }
+    }
+
+    static void classificationMiss(String space, String code) {
+        final ClassificationMissEvent event = new ClassificationMissEvent();
+        if (event.shouldCommit()) {
+            event.space = space;
+            event.code = code;
+            event.commit();
+        }
+    }
+
+    static void quarantinedBean(String space, String reason) {
+        final QuarantinedBeanEvent event = new QuarantinedBeanEvent();
+        if (event.shouldCommit()) {
+            event.space = space;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    @Name("org.fenixedu.spaces.migration.Phase")
+    @Label("Migration Phase")
+    @Category({ "FenixEdu", "Spaces Migration" })
+    @StackTrace(false)
+    public static class PhaseEvent extends Event {
+        @Label("Task")
+        public String task;
+
+        @Label("Phase")
+        public String phase;
+
+        @Label("Processed")
+        public long processed;
+    }
+
+    @Name("org.fenixedu.spaces.migration.PartitionCommit")
+    @Label("Partition Commit")
+    @Description("A partition of beans imported in one transaction")
+    @Category({ "FenixEdu", "Spaces Migration" })
+    @StackTrace(false)
+    public static class PartitionCommitEvent extends Event {
+        @Label("Transaction")
+        public String transaction;
+
+        @Label("Beans")
+        public int beans;
+
+        @Label("Estimated Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Retries")
+        public int retries;
+
+        @Label("Quarantined")
+        public int quarantined;
+    }
+
+    @Name("org.fenixedu.spaces.migration.ClassificationMiss")
+    @Label("Classification Miss")
+    @Category({ "FenixEdu", "Spaces Migration" })
+    @StackTrace(false)
+    public static class ClassificationMissEvent extends Event {
+        @Label("Space")
+        public String space;
+
+        @Label("Code")
+        public String code;
+    }
+
+    @Name("org.fenixedu.spaces.migration.BlueprintDecode")
+    @Label("Blueprint Decode")
+    @Category({ "FenixEdu", "Spaces Migration" })
+    @StackTrace(false)
+    public static class BlueprintDecodeEvent extends Event {
+        @Label("Space")
+        public String space;
+
+        @Label("Encoded Size")
+        @DataAmount
+        public long encoded;
+
+        @Label("Decoded Size")
+        @DataAmount
+        public long decoded;
+    }
+
+    @Name("org.fenixedu.spaces.migration.QuarantinedBean")
+    @Label("Quarantined Bean")
+    @Description("A bean left out of the import because it couldn't be resolved")
+    @Category({ "FenixEdu", "Spaces Migration" })
+    @StackTrace(false)
+    public static class QuarantinedBeanEvent extends Event {
+        @Label("Space")
+        public String space;
+
+        @Label("Reason")
+        public String reason;
+    }
+}
@@ -0,0 +1,115 @@
+package org.fenixedu.spaces.migration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches the heap through the memory MXBeans so the importer can hold back when it runs close to the limit, typically when it
+ * shares the JVM with the application.
+ *
+ * The heap counts as under pressure when the current usage is above the threshold and so was the usage left by the last
+ * collection of any heap pool that reports it, so that garbage waiting for the next collection isn't mistaken for live data.
+ * Once paused the importer no longer allocates, so in a JVM of its own no collection would come; there the monitor can be asked
+ * to request one at the start of each pause. Relief is judged on the current usage.
+ */
+public class HeapPressureMonitor {
+
+    private static final long POLL_MILLIS = 200;
+
+    private final double threshold;
+    private final long maxPauseMillis;
+    private final boolean collectOnPause;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<MemoryPoolMXBean> collectedPools = new ArrayList<>();
+
+    private long pauses;
+    private long pausedMillis;
+
+    /**
+     * @param collectOnPause whether each pause starts with a full, stop the world, collection; only for a JVM running the
+     *            import alone
+     */
+    public HeapPressureMonitor(double threshold, long maxPauseMillis, boolean collectOnPause) {
+        this.threshold = threshold;
+        this.maxPauseMillis = maxPauseMillis;
+        this.collectOnPause = collectOnPause;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                collectedPools.add(pool);
+            }
+        }
+    }
+
+    public double getHeapUsage() {
+        return ratio(memory.getHeapMemoryUsage());
+    }
+
+    public boolean isUnderPressure() {
+        if (getHeapUsage() < threshold) {
+            return false;
+        }
+        if (collectedPools.isEmpty()) {
+            return true;
+        }
+        for (MemoryPoolMXBean pool : collectedPools) {
+            final MemoryUsage afterCollection = pool.getCollectionUsage();
+            if (afterCollection != null && ratio(afterCollection) >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks while the heap is under pressure, for at most the configured pause, first requesting a collection if so
+     * configured.
+     *
+     * @return true if the pressure went away, false if the pause ran out
+     */
+    public boolean awaitRelief() {
+        if (!isUnderPressure()) {
+            return true;
+        }
+        final long start = System.currentTimeMillis();
+        synchronized (this) {
+            pauses++;
+        }
+        try {
+            if (collectOnPause) {
+                memory.gc();
+            }
+            while (getHeapUsage() >= threshold) {
+                if (System.currentTimeMillis() - start >= maxPauseMillis) {
+                    return false;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            synchronized (this) {
+                pausedMillis += System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    public synchronized long getPauses() {
+        return pauses;
+    }
+
+    public synchronized long getPausedMillis() {
+        return pausedMillis;
+    }
+
+    private static double ratio(MemoryUsage usage) {
+        final long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+        return max > 0 ? (double) usage.getUsed() / max : 0;
+    }
+}
@@ -0,0 +1,124 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.Files;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Timings and counters of an import run, one entry per phase.
+ */
+public class ImportMetrics {
+
+    public static class PhaseMetrics {
+        private long start;
+        private long elapsed;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong commits = new AtomicLong();
+        private final AtomicLong quarantined = new AtomicLong();
+
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public long getCommits() {
+            return commits.get();
+        }
+
+        public void processed(long count) {
+            processed.addAndGet(count);
+        }
+
+        public void committed() {
+            commits.incrementAndGet();
+        }
+
+        public long getQuarantined() {
+            return quarantined.get();
+        }
+
+        public void quarantined(long count) {
+            quarantined.addAndGet(count);
+        }
+    }
+
+    private final Map<ImportPhase, PhaseMetrics> phases = new LinkedHashMap<>();
+    private final TransactionMonitor transactions = new TransactionMonitor();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong heapPeak = new AtomicLong();
+
+    /**
+     * Records the heap in use now, if it is the most seen so far. Called at the phase boundaries and after each partition.
+     */
+    public void sampleHeap() {
+        final long used = memory.getHeapMemoryUsage().getUsed();
+        long peak = heapPeak.get();
+        while (used > peak && !heapPeak.compareAndSet(peak, used)) {
+            peak = heapPeak.get();
+        }
+    }
+
+    /**
+     * The most heap in use at any of the samples taken so far.
+     */
+    public long getHeapPeak() {
+        return heapPeak.get();
+    }
+
+    public TransactionMonitor getTransactions() {
+        return transactions;
+    }
+
+    public synchronized PhaseMetrics start(ImportPhase phase) {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        metrics.start = System.currentTimeMillis();
+        phases.put(phase, metrics);
+        sampleHeap();
+        return metrics;
+    }
+
+    public synchronized void end(ImportPhase phase) {
+        final PhaseMetrics metrics = phases.get(phase);
+        metrics.elapsed = System.currentTimeMillis() - metrics.start;
+        sampleHeap();
+    }
+
+    public synchronized PhaseMetrics get(ImportPhase phase) {
+        return phases.get(phase);
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<ImportPhase, PhaseMetrics> entry : phases.entrySet()) {
+            final PhaseMetrics metrics = entry.getValue();
+            final Map<String, Object> phase = new LinkedHashMap<>();
+            phase.put("elapsedMillis", metrics.getElapsed());
+            phase.put("processed", metrics.getProcessed());
+            phase.put("commits", metrics.getCommits());
+            phase.put("quarantined", metrics.getQuarantined());
+            if (metrics.getElapsed() > 0) {
+                phase.put("processedPerSecond", metrics.getProcessed() * 1000d / metrics.getElapsed());
+                phase.put("commitsPerSecond", metrics.getCommits() * 1000d / metrics.getElapsed());
+            }
+            map.put(entry.getKey().name(), phase);
+        }
+        map.put("heapPeakBytes", getHeapPeak());
+        map.put("transactions", transactions.toMap());
+        return map;
+    }
+
+    public void write(File file) throws IOException {
+        Files.write(new GsonBuilder().setPrettyPrinting().create().toJson(toMap()), file, StandardCharsets.UTF_8);
+    }
+}
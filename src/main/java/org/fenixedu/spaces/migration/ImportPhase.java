@@ -0,0 +1,8 @@
+package org.fenixedu.spaces.migration;
+
+/**
+ * The steps of a spaces migration, in the order they are run.
+ */
+public enum ImportPhase {
+    CLASSIFICATIONS, SPACES, OCCUPATIONS, RECONCILIATION
+}
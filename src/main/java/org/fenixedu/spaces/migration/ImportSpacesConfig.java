@@ -0,0 +1,234 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.fenixedu.spaces.migration.SpaceHierarchy.Ordering;
+
+/**
+ * Where {@link ImportSpacesTask} reads its dumps from and how it splits the work. The defaults are the ones used when the task
+ * is run from the scheduler.
+ */
+public class ImportSpacesConfig {
+
+    public static final String DEFAULT_IMPORT_URL = "/home/sfbs/Documents/fenix-spaces/import/most_recent";
+
+    private File inputDir = new File(DEFAULT_IMPORT_URL);
+    private File spacesFile;
+    private File classificationsFile;
+    private File occupationsFile;
+    private File reconciliationReportFile;
+    private File metricsFile;
+    private File statusFile;
+    private long progressInterval = 30;
+    private Set<ImportPhase> phases = EnumSet.of(ImportPhase.CLASSIFICATIONS, ImportPhase.SPACES);
+    private int batchSize = 1000;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private Ordering ordering = Ordering.FILE;
+    private long memoryBudget = 256L << 20;
+    private double heapThreshold = 0.85;
+    private boolean collectOnHeapPause;
+    private boolean upsertClassifications;
+    private boolean skipUnknownClassifications;
+
+    public File getInputDir() {
+        return inputDir;
+    }
+
+    public void setInputDir(File inputDir) {
+        this.inputDir = inputDir;
+    }
+
+    public File getSpacesFile() {
+        return spacesFile == null ? new File(inputDir, "spaces.json") : spacesFile;
+    }
+
+    public void setSpacesFile(File spacesFile) {
+        this.spacesFile = spacesFile;
+    }
+
+    public File getClassificationsFile() {
+        return classificationsFile == null ? new File(inputDir, "classifications.json") : classificationsFile;
+    }
+
+    public void setClassificationsFile(File classificationsFile) {
+        this.classificationsFile = classificationsFile;
+    }
+
+    public File getOccupationsFile() {
+        return occupationsFile == null ? new File(inputDir, "occupations.json") : occupationsFile;
+    }
+
+    public void setOccupationsFile(File occupationsFile) {
+        this.occupationsFile = occupationsFile;
+    }
+
+    public File getUsernamesFile() {
+        return new File(inputDir, "usernames.txt");
+    }
+
+    public File getEventOccupationsFile() {
+        return new File(inputDir, "event_space_occupations.json");
+    }
+
+    public File getReconciliationReportFile() {
+        return reconciliationReportFile == null ? new File(inputDir, "reconciliation_report.txt") : reconciliationReportFile;
+    }
+
+    public void setReconciliationReportFile(File reconciliationReportFile) {
+        this.reconciliationReportFile = reconciliationReportFile;
+    }
+
+    /**
+     * Where to write the per phase timings and counters, or null to skip them.
+     */
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Where to keep a json snapshot of the progress of the running phase, or null to only log it.
+     */
+    public File getStatusFile() {
+        return statusFile;
+    }
+
+    public void setStatusFile(File statusFile) {
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Seconds between progress reports, 0 to report only at the end of each phase.
+     */
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public void setProgressInterval(long progressInterval) {
+        if (progressInterval < 0) {
+            throw new IllegalArgumentException("progress interval can't be negative: " + progressInterval);
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * The phases to run, by default the classifications and the spaces. Reconciliation is left out because from the scheduler
+     * it runs in the same transaction as the import, so it is better run afterwards, on its own or from the runner.
+     */
+    public Set<ImportPhase> getPhases() {
+        return phases;
+    }
+
+    public void setPhases(Set<ImportPhase> phases) {
+        this.phases = EnumSet.copyOf(phases);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * The order in which spaces are imported. Anything but {@link Ordering#FILE} needs the whole dump in memory and imports on
+     * worker threads, in transactions of their own, so it is only accepted outside a transaction, that is from
+     * {@link ImportSpacesRunner} and not from the scheduler.
+     */
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    public void setOrdering(Ordering ordering) {
+        this.ordering = ordering;
+    }
+
+    /**
+     * Estimated bytes of parsed spaces that may be pending import at once, shared by all workers. This bounds the memory held
+     * by the dump only with the {@link Ordering#FILE} ordering; the other orderings parse the whole dump up front and only use
+     * the budget to size the transactions that run at once. Nor does it bound the import as a whole when run from the
+     * scheduler, whose transaction holds every chunk written until the task returns, so a memory bound needs
+     * {@link ImportSpacesRunner}.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Fraction of the maximum heap above which parsing pauses and batches shrink.
+     */
+    public double getHeapThreshold() {
+        return heapThreshold;
+    }
+
+    public void setHeapThreshold(double heapThreshold) {
+        if (heapThreshold <= 0 || heapThreshold > 1) {
+            throw new IllegalArgumentException("heap threshold must be in ]0, 1]: " + heapThreshold);
+        }
+        this.heapThreshold = heapThreshold;
+    }
+
+    /**
+     * Whether a pause on heap pressure starts with a full collection. The importer allocates nothing while paused, so in a JVM
+     * of its own nothing else would collect; inside the application the collection would stop every request, so the pause
+     * waits for the application's own collections instead.
+     */
+    public boolean isCollectOnHeapPause() {
+        return collectOnHeapPause;
+    }
+
+    public void setCollectOnHeapPause(boolean collectOnHeapPause) {
+        this.collectOnHeapPause = collectOnHeapPause;
+    }
+
+    /**
+     * Whether the classifications phase diffs the dump against the existing catalogue instead of only importing into an empty
+     * one.
+     */
+    public boolean isUpsertClassifications() {
+        return upsertClassifications;
+    }
+
+    public void setUpsertClassifications(boolean upsertClassifications) {
+        this.upsertClassifications = upsertClassifications;
+    }
+
+    /**
+     * Whether spaces referring to a classification that doesn't exist are left out of the import, and reported, instead of
+     * failing it.
+     */
+    public boolean isSkipUnknownClassifications() {
+        return skipUnknownClassifications;
+    }
+
+    public void setSkipUnknownClassifications(boolean skipUnknownClassifications) {
+        this.skipUnknownClassifications = skipUnknownClassifications;
+    }
+}
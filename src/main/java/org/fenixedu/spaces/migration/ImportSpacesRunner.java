@@ -0,0 +1,205 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.fenixedu.spaces.migration.SpaceHierarchy.Ordering;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs {@link ImportSpacesTask} in its own JVM instead of from the scheduler, so the migration can be given its own heap, GC and
+ * profiling flags. Fenix Framework is bootstrapped from the fenix-framework.properties found in the classpath, e.g.
+ *
+ * <pre>
+ * java -Xmx8g -XX:+UseG1GC -XX:StartFlightRecording=filename=import.jfr -cp ... \
+ *     org.fenixedu.spaces.migration.ImportSpacesRunner --input /data/import --phases spaces,reconciliation --workers 8
+ * </pre>
+ */
+public class ImportSpacesRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportSpacesRunner.class);
+
+    private static final String USAGE = "usage: ImportSpacesRunner [options]\n"
+            + "  --input <dir>              directory with the dumps (default " + ImportSpacesConfig.DEFAULT_IMPORT_URL + ")\n"
+            + "  --spaces <file>            spaces dump (default <input>/spaces.json)\n"
+            + "  --classifications <file>   classifications dump (default <input>/classifications.json)\n"
+            + "  --occupations <file>       occupations dump (default <input>/occupations.json)\n"
+            + "  --report <file>            reconciliation report (default <input>/reconciliation_report.txt)\n"
+            + "  --phases <p1,p2,...>       any of classifications, spaces, occupations, reconciliation\n"
+            + "                             (default classifications,spaces)\n"
+            + "  --classification-mode <m>  import into an empty catalogue or upsert into the existing one (default import)\n"
+            + "  --on-unknown-code <a>      fail the import or skip spaces with an unknown classification (default fail)\n"
+            + "  --batch-size <n>           beans per transaction (default 1000)\n"
+            + "  --workers <n>              worker threads (default number of processors)\n"
+            + "  --ordering <o>             file, breadth_first or subtree (default file)\n"
+            + "  --memory-budget <mb>       estimated size of the spaces pending import (default 256)\n"
+            + "  --heap-threshold <ratio>   heap usage above which parsing pauses (default 0.85)\n"
+            + "  --on-heap-pause <a>        wait for the heap to go down or collect first (default wait)\n"
+            + "  --metrics <file>           write phase timings and counters as json\n"
+            + "  --progress-interval <s>    seconds between progress reports (default 30)\n"
+            + "  --status-file <file>       keep a json progress snapshot for monitoring\n";
+
+    public static void main(String[] args) {
+        final ImportSpacesConfig config;
+        try {
+            config = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (config == null) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        int status = 0;
+        try {
+            final ImportSpacesTask task = new ImportSpacesTask(config);
+            task.setLogSink(new Consumer<String>() {
+                @Override
+                public void accept(String message) {
+                    logger.info(message);
+                }
+            });
+            task.runPhases();
+        } catch (Throwable t) {
+            logger.error("Import failed", t);
+            status = 1;
+        } finally {
+            FenixFramework.shutdown();
+        }
+        System.exit(status);
+    }
+
+    static ImportSpacesConfig parse(String[] args) {
+        final ImportSpacesConfig config = new ImportSpacesConfig();
+        final Iterator<String> it = Lists.newArrayList(args).iterator();
+        while (it.hasNext()) {
+            final String option = it.next();
+            if ("--help".equals(option) || "-h".equals(option)) {
+                return null;
+            }
+            if (!it.hasNext()) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            final String value = it.next();
+            switch (option) {
+            case "--input":
+                config.setInputDir(new File(value));
+                break;
+            case "--spaces":
+                config.setSpacesFile(new File(value));
+                break;
+            case "--classifications":
+                config.setClassificationsFile(new File(value));
+                break;
+            case "--occupations":
+                config.setOccupationsFile(new File(value));
+                break;
+            case "--report":
+                config.setReconciliationReportFile(new File(value));
+                break;
+            case "--phases":
+                config.setPhases(parsePhases(value));
+                break;
+            case "--classification-mode":
+                if ("upsert".equalsIgnoreCase(value)) {
+                    config.setUpsertClassifications(true);
+                } else if ("import".equalsIgnoreCase(value)) {
+                    config.setUpsertClassifications(false);
+                } else {
+                    throw new IllegalArgumentException("unknown classification mode " + value);
+                }
+                break;
+            case "--on-unknown-code":
+                if ("skip".equalsIgnoreCase(value)) {
+                    config.setSkipUnknownClassifications(true);
+                } else if ("fail".equalsIgnoreCase(value)) {
+                    config.setSkipUnknownClassifications(false);
+                } else {
+                    throw new IllegalArgumentException("unknown action on unknown code " + value);
+                }
+                break;
+            case "--batch-size":
+                config.setBatchSize(parseInt(option, value));
+                break;
+            case "--workers":
+                config.setWorkers(parseInt(option, value));
+                break;
+            case "--ordering":
+                try {
+                    config.setOrdering(Ordering.valueOf(value.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("unknown ordering " + value);
+                }
+                break;
+            case "--memory-budget":
+                config.setMemoryBudget((long) parseInt(option, value) << 20);
+                break;
+            case "--heap-threshold":
+                try {
+                    config.setHeapThreshold(Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("not a number for " + option + ": " + value);
+                }
+                break;
+            case "--on-heap-pause":
+                if ("collect".equalsIgnoreCase(value)) {
+                    config.setCollectOnHeapPause(true);
+                } else if ("wait".equalsIgnoreCase(value)) {
+                    config.setCollectOnHeapPause(false);
+                } else {
+                    throw new IllegalArgumentException("unknown action on heap pause " + value);
+                }
+                break;
+            case "--metrics":
+                config.setMetricsFile(new File(value));
+                break;
+            case "--progress-interval":
+                config.setProgressInterval(parseInt(option, value));
+                break;
+            case "--status-file":
+                config.setStatusFile(new File(value));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+        return config;
+    }
+
+    private static Set<ImportPhase> parsePhases(String value) {
+        final Set<ImportPhase> phases = EnumSet.noneOf(ImportPhase.class);
+        for (String phase : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+            try {
+                phases.add(ImportPhase.valueOf(phase.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown phase " + phase);
+            }
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("no phases given");
+        }
+        return phases;
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number for " + option + ": " + value);
+        }
+    }
+}
@@ -1,22 +1,33 @@
 package org.fenixedu.spaces.migration;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -36,6 +47,7 @@ import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
 import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.Frequency;
 import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
 import org.fenixedu.spaces.domain.occupation.requests.OccupationRequest;
+import org.fenixedu.spaces.migration.SpaceHierarchy.Ordering;
 import org.fenixedu.spaces.ui.InformationBean;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -54,9 +66,7 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 import com.google.common.io.BaseEncoding;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
@@ -73,12 +83,64 @@ public class ImportSpacesTask extends CustomTask {
     final Locale LocaleEN = Locale.forLanguageTag("en-GB");
 
     Multimap<String, MetadataSpec> codeToMetadataSpecMap;
+    ClassificationTreeBuilder.MetadataSpecs metadataSpecs;
 
-    private static final String IMPORT_URL = "/home/sfbs/Documents/fenix-spaces/import/most_recent";
-    private static final String EVENT_OCCUPATIONS_FILEPATH = IMPORT_URL + "/event_space_occupations.json";
-    private static final String OCCUPATIONS_FILEPATH = IMPORT_URL + "/occupations.json";
-    private static final String CLASSIFICATIONS_FILEPATH = IMPORT_URL + "/classifications.json";
-    private static final String SPACES_FILEPATH = IMPORT_URL + "/spaces.json";
+    private final ImportSpacesConfig config;
+    private final ImportMetrics metrics = new ImportMetrics();
+    private Consumer<String> logSink;
+
+    // estimates of the retained size of the parsed dump, see SpaceBean.estimateSize
+    private static final long SPACE_BEAN_BYTES = 1024;
+    private static final long INFORMATION_BYTES = 2048;
+    private static final long STRING_BYTES = 40;
+
+    private static final int HEAP_CHECK_INTERVAL = 50;
+    private static final long MAX_HEAP_PAUSE_MILLIS = 60000;
+
+    // absolute code to classification, as left by the classifications phase of this run and read by the workers
+    private final Map<String, SpaceClassification> classificationsByCode = new ConcurrentHashMap<>();
+
+    // the space beans have no reference to the task, so they are handed this to resolve their classifications
+    private final Function<String, SpaceClassification> classificationResolver = new Function<String, SpaceClassification>() {
+        @Override
+        public SpaceClassification apply(String code) {
+            return getClassification(code);
+        }
+    };
+
+    private HeapPressureMonitor heap;
+    private int currentBatchSize;
+
+    public ImportSpacesTask() {
+        this(new ImportSpacesConfig());
+    }
+
+    public ImportSpacesTask(ImportSpacesConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Sends the task log somewhere else than the scheduler, used when running outside the application.
+     */
+    void setLogSink(Consumer<String> logSink) {
+        this.logSink = logSink;
+    }
+
+    void log(String format, Object... args) {
+        if (logSink == null) {
+            taskLog(format, args);
+        } else {
+            logSink.accept(String.format(format, args).trim());
+        }
+    }
+
+    Function<String, SpaceClassification> getClassificationResolver() {
+        return classificationResolver;
+    }
+
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
 
     private void initMetadataSpecMap() {
         codeToMetadataSpecMap = HashMultimap.create();
@@ -122,92 +184,94 @@ public class ImportSpacesTask extends CustomTask {
                 "Room",
                 new MetadataSpec("examCapacity", new LocalizedString.Builder().with(LocalePT, "Capacidade Exame")
                         .with(LocaleEN, "Exam Capacity").build(), java.lang.Integer.class, true, "0"));
-
+        metadataSpecs = new ClassificationTreeBuilder.MetadataSpecs(codeToMetadataSpecMap);
     }
 
-    private static class ClassificationBean {
-        public String name;
-        public Set<ClassificationBean> childs;
-        public Integer code;
-
-        public ClassificationBean(Integer code, String name, Set<ClassificationBean> childs) {
-            super();
-            this.code = code;
-            this.name = name;
-            this.childs = childs;
+    private void importClassifications(Gson gson) {
+        final ClassificationTreeBuilder builder = readClassifications(gson);
+        if (builder != null) {
+            log("Creating %d classifications\n", builder.size());
+            classificationsByCode.putAll(builder.create(null));
         }
+    }
 
-        public ClassificationBean(Integer code, String name) {
-            this(code, name, Sets.<ClassificationBean> newHashSet());
+    /**
+     * Applies the dump to the existing catalogue, indexed once by absolute code, creating or renaming only what changed.
+     *
+     * @return the classifications created or renamed
+     */
+    private Map<String, SpaceClassification> upsertClassifications(Gson gson) {
+        classificationsByCode.putAll(ClassificationTreeBuilder.index(Bennu.getInstance().getRootClassificationSet()));
+        log("Upsert classifications into %d existing\n", classificationsByCode.size());
+        final Map<String, SpaceClassification> changed = new LinkedHashMap<>();
+        final ClassificationTreeBuilder builder = readClassifications(gson);
+        if (builder != null) {
+            changed.putAll(builder.upsert(null, classificationsByCode));
+            log("Created %d and renamed %d of %d classifications\n", builder.getCreated(), builder.getRenamed(), builder.size());
         }
+        changed.putAll(initSpaceTypes());
+        return changed;
     }
 
-    private void importClassifications(Gson gson) {
-        taskLog("Import classification from %s \n", CLASSIFICATIONS_FILEPATH);
+    private ClassificationTreeBuilder readClassifications(Gson gson) {
+        log("Import classification from %s \n", config.getClassificationsFile());
         try {
-            File file = new File(CLASSIFICATIONS_FILEPATH);
+            File file = config.getClassificationsFile();
             List<ClassificationBean> classificationJson;
             classificationJson = gson.fromJson(new JsonReader(new FileReader(file)), new TypeToken<List<ClassificationBean>>() {
             }.getType());
-            for (ClassificationBean bean : classificationJson) {
-                create(null, bean);
-            }
+            return new ClassificationTreeBuilder(classificationJson, null, LocalePT);
         } catch (JsonIOException | JsonSyntaxException | FileNotFoundException e) {
             e.printStackTrace();
+            return null;
         }
-
     }
 
-    final String[] en = new String[] { "Campus", "Room Subdivision", "Building", "Floor" };
-
-    private void initAllClassificationsWithRoomMetadata() {
-        taskLog("Init all classifications with room metadata");
-        for (SpaceClassification classification : SpaceClassification.all()) {
+    private int initAllClassificationsWithRoomMetadata(Collection<SpaceClassification> classifications) {
+        log("Init all classifications with room metadata");
+        int updated = 0;
+        for (SpaceClassification classification : classifications) {
             String content = classification.getName().getContent(LocaleEN);
-            if (!Arrays.asList(en).contains(content)) {
+            if (SpaceType.ofNameEN(content) == null) {
                 content = "Room";
             }
             if (!Strings.isNullOrEmpty(content)) {
-                Collection<MetadataSpec> specs = codeToMetadataSpecMap.get(content);
-                if (specs != null && !specs.isEmpty()) {
-                    classification.setMetadataSpecs(specs);
+                if (metadataSpecs.update(classification, content)) {
+                    updated++;
                 }
             }
         }
+        return updated;
     }
 
-    private void create(SpaceClassification parent, ClassificationBean bean) {
-        final LocalizedString name = new LocalizedString.Builder().with(LocalePT, bean.name).build();
-        final String code = bean.code.toString();
-        final SpaceClassification spaceClassification = new SpaceClassification(code, name, parent);
-        for (ClassificationBean child : bean.childs) {
-            create(spaceClassification, child);
-        }
-    }
-
-    public void initSpaceTypes() {
-        taskLog("Init space types");
-        final String[] pt = new String[] { "Campus", "Subdivisão de Sala", "Edifício", "Piso" };
-        final String[] codes = new String[] { "3", "4", "5", "6" };
-
-        final SpaceClassification otherSpaces = SpaceClassification.get("11"); // other spaces
+    /**
+     * Creates the space types missing under other spaces. Classifications already at their codes are left as they are.
+     *
+     * @return the space types created
+     */
+    public Map<String, SpaceClassification> initSpaceTypes() {
+        log("Init space types");
+        final SpaceClassification otherSpaces = classificationsByCode.get(SpaceType.PARENT_CODE);
 
         if (otherSpaces == null) {
             throw new UnsupportedOperationException("can't find other spaces");
         }
 
-        for (int i = 0; i < codes.length; i++) {
-            String name_EN = en[i];
-            String name_PT = pt[i];
-            String code = codes[i];
-            create(otherSpaces, name_EN, name_PT, code);
+        final Map<String, SpaceClassification> created = new LinkedHashMap<>();
+        for (SpaceType type : SpaceType.values()) {
+            if (!classificationsByCode.containsKey(type.getAbsoluteCode())) {
+                created.put(type.getAbsoluteCode(), create(otherSpaces, type.getNameEN(), type.getNamePT(), type.getCode()));
+            }
         }
+        classificationsByCode.putAll(created);
+        return created;
     }
 
-    public void create(SpaceClassification parent, String name_EN, String name_PT, String code) {
+    public SpaceClassification create(SpaceClassification parent, String name_EN, String name_PT, String code) {
         final LocalizedString name = new LocalizedString.Builder().with(LocalePT, name_PT).with(LocaleEN, name_EN).build();
         final SpaceClassification spaceClassification = new SpaceClassification(code, name, parent, null);
         spaceClassification.setMetadataSpecs(codeToMetadataSpecMap.get(code));
+        return spaceClassification;
     }
 
     private static String dealWithDates(YearMonthDay yearMonthDay) {
@@ -298,6 +362,15 @@ public class ImportSpacesTask extends CustomTask {
         }
     }
 
+    static class UnknownClassificationException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnknownClassificationException(String code) {
+            super("code doesnt exist: " + code);
+        }
+    }
+
     public class SpaceBean {
         public String parentExternalId;
         public String externalId;
@@ -307,8 +380,8 @@ public class ImportSpacesTask extends CustomTask {
         public String type;
         public String occupationGroup;
         public String managementSpaceGroup;
-        private String lessonOccupationsAccessGroup;
-        private String writtenEvaluationOccupationsAccessGroup;
+        String lessonOccupationsAccessGroup;
+        String writtenEvaluationOccupationsAccessGroup;
         public Set<SpaceInformationBean> informations;
         public Set<BlueprintBean> blueprints;
 
@@ -340,6 +413,27 @@ public class ImportSpacesTask extends CustomTask {
             public String level;
         }
 
+        /**
+         * Rough number of bytes this bean keeps alive until it is imported, counting the blueprints both as json text and
+         * decoded once for each information by {@link #beans(Function)}.
+         */
+        public long estimateSize() {
+            long size = SPACE_BEAN_BYTES;
+            long largestBlueprint = 0;
+            if (blueprints != null) {
+                for (BlueprintBean blueprint : blueprints) {
+                    if (blueprint.raw != null) {
+                        size += STRING_BYTES + 2L * blueprint.raw.length();
+                        largestBlueprint = Math.max(largestBlueprint, blueprint.raw.length() * 3L / 4);
+                    }
+                }
+            }
+            if (informations != null) {
+                size += informations.size() * (INFORMATION_BYTES + largestBlueprint);
+            }
+            return size;
+        }
+
         private DateTime dealWithDates(String datetime) {
             if (datetime == null) {
                 return null;
@@ -347,19 +441,12 @@ public class ImportSpacesTask extends CustomTask {
             return DateTimeFormat.forPattern("dd/MM/yyyy").parseDateTime(datetime);
         }
 
-        public Set<InformationBean> beans() {
+        /**
+         * @param classifications resolves the absolute classification codes found in the dump
+         */
+        public Set<InformationBean> beans(final Function<String, SpaceClassification> classifications) {
             return FluentIterable.from(informations).transform(new Function<SpaceInformationBean, InformationBean>() {
 
-                Map<String, String> typeToCode;
-
-                {
-                    typeToCode = new HashMap<>();
-                    typeToCode.put("Campus", "11.3");
-                    typeToCode.put("RoomSubdivision", "11.4");
-                    typeToCode.put("Building", "11.5");
-                    typeToCode.put("Floor", "11.6");
-                }
-
                 @Override
                 public InformationBean apply(SpaceInformationBean input) {
                     InformationBean bean = new InformationBean();
@@ -393,7 +480,11 @@ public class ImportSpacesTask extends CustomTask {
                         final DateTime bFrom = dealWithDates(bean.validFrom);
                         final DateTime bUntil = dealWithDates(bean.validUntil);
                         if (new Interval(validFrom, validUntil).overlaps(new Interval(bFrom, bUntil))) {
-                            return BaseEncoding.base64().decode(bean.raw);
+                            final Object event = MigrationEvents.beginBlueprintDecode();
+                            final byte[] blueprint = BaseEncoding.base64().decode(bean.raw);
+                            MigrationEvents.end(event);
+                            MigrationEvents.commitBlueprintDecode(event, externalId, bean.raw.length(), blueprint.length);
+                            return blueprint;
                         }
                     }
                     return null;
@@ -412,14 +503,15 @@ public class ImportSpacesTask extends CustomTask {
                 }
 
                 private SpaceClassification getClassificationByType(String type) {
-                    final String classificationCode = typeToCode.get(type);
-                    return SpaceClassification.get(classificationCode);
+                    final SpaceType spaceType = SpaceType.ofDumpType(type);
+                    return spaceType == null ? null : classifications.apply(spaceType.getAbsoluteCode());
                 }
 
                 private SpaceClassification getClassificationByCode(String classificationCode) {
-                    final SpaceClassification spaceClassification = SpaceClassification.get(classificationCode);
+                    final SpaceClassification spaceClassification = classifications.apply(classificationCode);
                     if (spaceClassification == null) {
-                        throw new RuntimeException("code doesnt exist: " + classificationCode);
+                        MigrationEvents.classificationMiss(externalId, classificationCode);
+                        throw new UnknownClassificationException(classificationCode);
                     }
                     return spaceClassification;
                 }
@@ -463,70 +555,173 @@ public class ImportSpacesTask extends CustomTask {
 //    List<SpaceBean> fromJson;
 
     private void doClassifications(final Gson gson) {
-        FenixFramework.getTransactionManager().withTransaction(new CallableWithoutException<Void>() {
-
-            @Override
-            public Void call() {
-                if (Bennu.getInstance().getRootClassificationSet().isEmpty()) {
-                    taskLog("No classifications, import classifications");
-                    importClassifications(gson);
-                    initSpaceTypes();
-                    initAllClassificationsWithRoomMetadata();
-                } else {
-                    taskLog("classifications already imported");
-                }
-                return null;
-            }
+        final CallableWithoutException<Map<String, SpaceClassification>> classifications =
+                new CallableWithoutException<Map<String, SpaceClassification>>() {
+
+                    @Override
+                    public Map<String, SpaceClassification> call() {
+                        TransactionMonitor.touch(Bennu.getInstance());
+                        classificationsByCode.clear();
+                        if (config.isUpsertClassifications()) {
+                            // the classifications left as they were already had their specs set by an earlier run
+                            final Map<String, SpaceClassification> changed = upsertClassifications(gson);
+                            final Map<String, SpaceClassification> specified = new LinkedHashMap<>(changed);
+                            for (SpaceType type : SpaceType.values()) {
+                                specified.put(type.getAbsoluteCode(), classificationsByCode.get(type.getAbsoluteCode()));
+                            }
+                            log("Updated metadata specs of %d classifications\n",
+                                    initAllClassificationsWithRoomMetadata(specified.values()));
+                            return changed;
+                        } else if (Bennu.getInstance().getRootClassificationSet().isEmpty()) {
+                            log("No classifications, import classifications");
+                            importClassifications(gson);
+                            initSpaceTypes();
+                            initAllClassificationsWithRoomMetadata(classificationsByCode.values());
+                        } else {
+                            log("classifications already imported");
+                            classificationsByCode.putAll(ClassificationTreeBuilder.index(Bennu.getInstance()
+                                    .getRootClassificationSet()));
+                        }
+                        return classificationsByCode;
+                    }
 
-        });
+                };
 
-        logAllImportedClassifications();
+        logAllImportedClassifications(metrics.getTransactions().withTransaction("classifications", classifications));
     }
 
-    private void logAllImportedClassifications() {
-        for (SpaceClassification classification : SpaceClassification.all()) {
-            taskLog("code %s name %s\n", classification.getAbsoluteCode(), classification.getName().json().toString());
+    private void logAllImportedClassifications(Map<String, SpaceClassification> classifications) {
+        for (Map.Entry<String, SpaceClassification> entry : new TreeMap<>(classifications).entrySet()) {
+            log("code %s name %s\n", entry.getKey(), entry.getValue().getName().json().toString());
         }
     }
 
+    /**
+     * Looks the classification up in the catalogue indexed by {@link #doClassifications(Gson)}, falling back to the domain
+     * when the classifications phase didn't run.
+     */
+    SpaceClassification getClassification(String code) {
+        final SpaceClassification classification = classificationsByCode.get(code);
+        return classification != null ? classification : SpaceClassification.get(code);
+    }
+
     @Override
     public void runTask() throws Exception {
+        runPhases();
+    }
+
+    public void runPhases() throws Exception {
         Gson gson = new Gson();
         initMetadataSpecMap();
-        doClassifications(gson);
-        processSpaces(gson);
-//        processOccupations(gson);
-    }
-
-    public void processOccupations(Gson gson) throws FileNotFoundException {
-        File file = new File(OCCUPATIONS_FILEPATH);
-        final List<ImportOccupationBean> fromJson =
-                gson.fromJson(new JsonReader(new FileReader(file)), new TypeToken<List<ImportOccupationBean>>() {
-                }.getType());
-
-        for (ImportOccupationBean importOccupationBean : fromJson) {
-            Set<Space> occupationSpaces = new HashSet<>();
-            for (String spaceId : importOccupationBean.spaces) {
-                if (!Strings.isNullOrEmpty(spaceId)) {
-                    final Space e = FenixFramework.getDomainObject(getNewSpaceId(spaceId));
-                    if (!FenixFramework.isDomainObjectValid(e)) {
-                        throw new UnknownError(String.format("Space doesn't exist %s, abort!", spaceId));
-                    }
-                    occupationSpaces.add(e);
+        try {
+            for (ImportPhase phase : config.getPhases()) {
+                final Object event = MigrationEvents.beginPhase();
+                metrics.start(phase);
+                log("Phase %s\n", phase);
+                switch (phase) {
+                case CLASSIFICATIONS:
+                    doClassifications(gson);
+                    break;
+                case SPACES:
+                    processSpaces(gson);
+                    break;
+                case OCCUPATIONS:
+                    processOccupations(gson);
+                    break;
+                case RECONCILIATION:
+                    reconcileSpaces(gson);
+                    break;
                 }
+                metrics.end(phase);
+                MigrationEvents.end(event);
+                MigrationEvents.commitPhase(event, getClass().getSimpleName(), phase.name(), metrics.get(phase).getProcessed());
+                log("Phase %s took %d ms\n", phase, metrics.get(phase).getElapsed());
+            }
+        } finally {
+            for (String line : metrics.getTransactions().lines()) {
+                log("%s\n", line);
+            }
+            if (config.getMetricsFile() != null) {
+                metrics.write(config.getMetricsFile());
+            }
+        }
+    }
+
+    public void reconcileSpaces(Gson gson) throws IOException {
+        log("Reconciling spaces with %d workers\n", config.getWorkers());
+        final File file = config.getSpacesFile();
+        final ProgressTracker progress = newProgressTracker(ImportPhase.RECONCILIATION, file);
+        final ReconciliationReport report;
+        try {
+            report = new SpaceReconciler(this, config.getWorkers(), config.getBatchSize()).reconcile(gson, file, progress);
+        } finally {
+            progress.finish();
+        }
+        metrics.get(ImportPhase.RECONCILIATION).processed(report.getChecked());
+        for (String line : report.lines()) {
+            log("%s\n", line);
+        }
+        report.write(config.getReconciliationReportFile());
+    }
+
+    public void processOccupations(Gson gson) throws IOException {
+        File file = config.getOccupationsFile();
+        final ProgressTracker progress = newProgressTracker(ImportPhase.OCCUPATIONS, file);
+        log("Processing chunks of %d from %s (%d bytes)\n", config.getBatchSize(), file, file.length());
+        try (JsonArrayReader<ImportOccupationBean> reader =
+                new JsonArrayReader<>(gson, new InputStreamReader(progress.track(new FileInputStream(file)),
+                        StandardCharsets.UTF_8), ImportOccupationBean.class)) {
+            List<ImportOccupationBean> partition;
+            while (!(partition = reader.next(config.getBatchSize())).isEmpty()) {
+                processOccupationPartition(partition);
+                progress.processed(partition.size());
             }
+        } finally {
+            progress.finish();
+        }
+    }
 
-            final OccupationConfig explicitConfig = getConfig(importOccupationBean);
+    private void processOccupationPartition(final List<ImportOccupationBean> partition) {
+        final Object event = MigrationEvents.beginPartitionCommit();
+        metrics.getTransactions().withTransaction("occupations", new CallableWithoutException<Void>() {
 
-            Occupation occupation =
-                    new Occupation(null, importOccupationBean.title, importOccupationBean.description, explicitConfig,
-                            getRequest(importOccupationBean));
+            @Override
+            public Void call() {
+                for (ImportOccupationBean importOccupationBean : partition) {
+                    process(importOccupationBean);
+                }
+                return null;
+            }
+        });
+        MigrationEvents.end(event);
+        MigrationEvents.commitPartitionCommit(event, "occupations", partition.size(), 0,
+                Math.max(0, TransactionMonitor.lastAttempts() - 1), 0);
+        metrics.get(ImportPhase.OCCUPATIONS).processed(partition.size());
+        metrics.get(ImportPhase.OCCUPATIONS).committed();
+        metrics.sampleHeap();
+    }
 
-            for (Space space : occupationSpaces) {
-                occupation.addSpace(space);
+    private void process(ImportOccupationBean importOccupationBean) {
+        Set<Space> occupationSpaces = new HashSet<>();
+        for (String spaceId : importOccupationBean.spaces) {
+            if (!Strings.isNullOrEmpty(spaceId)) {
+                final Space e = FenixFramework.getDomainObject(getNewSpaceId(spaceId));
+                if (!FenixFramework.isDomainObjectValid(e)) {
+                    throw new UnknownError(String.format("Space doesn't exist %s, abort!", spaceId));
+                }
+                occupationSpaces.add(e);
             }
         }
 
+        final OccupationConfig explicitConfig = getConfig(importOccupationBean);
+
+        Occupation occupation =
+                new Occupation(null, importOccupationBean.title, importOccupationBean.description, explicitConfig,
+                        getRequest(importOccupationBean));
+
+        for (Space space : occupationSpaces) {
+            occupation.addSpace(space);
+        }
     }
 
     private OccupationRequest getRequest(ImportOccupationBean importOccupationBean) {
@@ -579,46 +774,220 @@ public class ImportSpacesTask extends CustomTask {
         }
     }
 
-    public void processSpaces(Gson gson) throws FileNotFoundException {
-        File file = new File(SPACES_FILEPATH);
-        final List<SpaceBean> fromJson = gson.fromJson(new JsonReader(new FileReader(file)), new TypeToken<List<SpaceBean>>() {
-        }.getType());
+    private ProgressTracker newProgressTracker(ImportPhase phase, File file) {
+        return new ProgressTracker(phase, file.length(), config.getProgressInterval(), config.getStatusFile(),
+                new Consumer<String>() {
+                    @Override
+                    public void accept(String message) {
+                        log("%s\n", message);
+                    }
+                });
+    }
+
+    public void processSpaces(Gson gson) throws IOException {
+        if (config.getOrdering() != Ordering.FILE && TransactionMonitor.inTransaction()) {
+            // the workers wouldn't see what this transaction wrote, such as the classifications, until the task returns
+            throw new IllegalStateException("The " + config.getOrdering()
+                    + " ordering imports on worker threads and can't run inside a transaction, use ImportSpacesRunner");
+        }
+        File file = config.getSpacesFile();
+        final int batchSize = config.getBatchSize();
+        final ProgressTracker progress = newProgressTracker(ImportPhase.SPACES, file);
+        heap = new HeapPressureMonitor(config.getHeapThreshold(), MAX_HEAP_PAUSE_MILLIS, config.isCollectOnHeapPause());
+        currentBatchSize = batchSize;
+        log("Processing chunks of %d from %s (%d bytes) in %s order, memory budget %d MB\n", batchSize, file, file.length(),
+                config.getOrdering(), config.getMemoryBudget() >> 20);
+        if (config.getOrdering() != Ordering.FILE) {
+            log("The whole dump is held in memory, the budget only sizes concurrent transactions\n");
+        } else if (TransactionMonitor.inTransaction()) {
+            // the classifications written earlier in this transaction would not be visible to a thread of its own
+            log("Running inside a transaction, the chunks commit with it and the budget only bounds the parsed dump\n");
+        }
+        try (JsonArrayReader<SpaceBean> reader =
+                new JsonArrayReader<>(gson, new InputStreamReader(progress.track(new FileInputStream(file)),
+                        StandardCharsets.UTF_8), SpaceBean.class)) {
+            if (config.getOrdering() == Ordering.FILE) {
+                List<SpaceBean> partition;
+                while (!(partition = nextPartition(reader)).isEmpty()) {
+                    log("Chunk with %d \n", partition.size());
+                    processPartition(partition);
+                    partitionDone(partition, progress);
+                }
+            } else {
+                final List<SpaceBean> beans = new ArrayList<>();
+                long size = 0;
+                while (reader.hasNext()) {
+                    final SpaceBean bean = reader.next();
+                    if (bean != null) {
+                        beans.add(bean);
+                        size += bean.estimateSize();
+                    }
+                }
+                final SpaceHierarchy hierarchy = SpaceHierarchy.build(beans);
+                log("Space forest with %d spaces and %d roots, about %d MB parsed\n", hierarchy.size(), hierarchy.getRootCount(),
+                        size >> 20);
+                progress.countItems(hierarchy.size());
+                processStages(hierarchy.stages(config.getOrdering(), batchSize), progress);
+            }
+        } finally {
+            progress.finish();
+            log("Paused %d times for %d ms on heap pressure\n", heap.getPauses(), heap.getPausedMillis());
+        }
+    }
 
-        final List<List<SpaceBean>> partitions = Lists.partition(fromJson, 1000);
-        taskLog("Processing chunks of 1000, total : %d\n", partitions.size());
-        for (List<SpaceBean> partition : partitions) {
-            taskLog("Chunk with %d \n", partition.size());
-            processPartition(partition);
+    /**
+     * Reads the next partition from the dump, cut at the batch size or at the memory budget, whichever comes first. When the
+     * heap is under pressure the partition is cut short and the batch size halved, or, if nothing has been read yet, parsing
+     * waits for the heap to recover. The batch size grows back after each partition read without pressure.
+     */
+    private List<SpaceBean> nextPartition(JsonArrayReader<SpaceBean> reader) {
+        final List<SpaceBean> partition = new ArrayList<>();
+        long size = 0;
+        boolean pressure = false;
+        while (partition.size() < currentBatchSize && size < config.getMemoryBudget() && reader.hasNext()) {
+            if (partition.size() % HEAP_CHECK_INTERVAL == 0 && heap.isUnderPressure()) {
+                pressure = true;
+                if (!partition.isEmpty()) {
+                    break;
+                }
+                log("Heap at %.0f%%, pausing\n", heap.getHeapUsage() * 100);
+                if (!heap.awaitRelief()) {
+                    log("Heap still at %.0f%% after pausing %d ms, going on\n", heap.getHeapUsage() * 100,
+                            MAX_HEAP_PAUSE_MILLIS);
+                }
+            }
+            final SpaceBean bean = reader.next();
+            if (bean != null) {
+                partition.add(bean);
+                size += bean.estimateSize();
+            }
         }
+        if (pressure) {
+            currentBatchSize = Math.max(1, currentBatchSize / 2);
+            log("Heap pressure, batch size down to %d\n", currentBatchSize);
+        } else if (currentBatchSize < config.getBatchSize()) {
+            currentBatchSize = Math.min(config.getBatchSize(), currentBatchSize * 2);
+        }
+        return partition;
+    }
+
+    /**
+     * Splits the partition so that the beans in the transactions of all workers at once stay within the memory budget. This
+     * bounds the transaction write sets, not the parsed dump, which the hierarchical orderings hold in full anyway. The parts
+     * keep the order of the partition and must be imported in that order.
+     */
+    private List<List<SpaceBean>> withinBudget(List<SpaceBean> partition) {
+        final long budget = Math.max(1, config.getMemoryBudget() / config.getWorkers());
+        final List<List<SpaceBean>> parts = new ArrayList<>();
+        List<SpaceBean> part = new ArrayList<>();
+        long size = 0;
+        for (SpaceBean bean : partition) {
+            final long beanSize = bean.estimateSize();
+            if (!part.isEmpty() && size + beanSize > budget) {
+                parts.add(part);
+                part = new ArrayList<>();
+                size = 0;
+            }
+            part.add(bean);
+            size += beanSize;
+        }
+        if (!part.isEmpty()) {
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private void processStages(List<List<List<SpaceBean>>> stages, final ProgressTracker progress) {
+        final ExecutorService executor = Executors.newFixedThreadPool(config.getWorkers());
+        try {
+            int stageNumber = 0;
+            for (List<List<SpaceBean>> stage : stages) {
+                log("Stage %d with %d chunks\n", ++stageNumber, stage.size());
+                final List<Future<?>> futures = new ArrayList<>();
+                for (final List<SpaceBean> batch : stage) {
+                    // the parts of a batch may hold a parent and its children, so they commit one after the other
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (List<SpaceBean> partition : withinBudget(batch)) {
+                                processPartition(partition);
+                                partitionDone(partition, progress);
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void partitionDone(List<SpaceBean> partition, ProgressTracker progress) {
+        progress.processed(partition.size());
+        metrics.get(ImportPhase.SPACES).processed(partition.size());
+        metrics.get(ImportPhase.SPACES).committed();
+        metrics.sampleHeap();
     }
 
     private void processPartition(final List<SpaceBean> partition) {
-        FenixFramework.getTransactionManager().withTransaction(new CallableWithoutException<Void>() {
+        final Object event = MigrationEvents.beginPartitionCommit();
+        final List<String> quarantined =
+                metrics.getTransactions().withTransaction("spaces", new CallableWithoutException<List<String>>() {
+
+                    @Override
+                    public List<String> call() {
+                        final List<String> quarantined = new ArrayList<>();
+                        for (final SpaceBean bean : partition) {
+                            if (!process(bean)) {
+                                quarantined.add(bean.externalId);
+                            }
+                        }
+                        return quarantined;
+                    }
+                });
+        MigrationEvents.end(event);
 
-            @Override
-            public Void call() {
-                for (final SpaceBean bean : partition) {
-                    process(bean);
+        if (!quarantined.isEmpty()) {
+            log("Quarantined %d spaces: %s\n", quarantined.size(), Joiner.on(", ").join(quarantined));
+            metrics.get(ImportPhase.SPACES).quarantined(quarantined.size());
+        }
 
+        if (MigrationEvents.shouldCommit(event)) {
+            long bytes = 0;
+            for (SpaceBean bean : partition) {
+                if (bean != null) {
+                    bytes += bean.estimateSize();
                 }
-                return null;
             }
-        });
+            MigrationEvents.commitPartitionCommit(event, "spaces", partition.size(), bytes,
+                    Math.max(0, TransactionMonitor.lastAttempts() - 1), quarantined.size());
+        }
     }
 
-    private void process(final SpaceBean spaceBean) {
+    /**
+     * @return false if the bean was quarantined
+     */
+    private boolean process(final SpaceBean spaceBean) {
         if (spaceBean == null) {
-            return;
+            return true;
         }
         Space space = (Space) FenixFramework.getDomainObject(getNewSpaceId(spaceBean.externalId));
         if (!FenixFramework.isDomainObjectValid(space)) {
-            taskLog("Space doesn't exists %s\n", spaceBean.externalId);
-        } else {
-            update(space, spaceBean);
+            log("Space doesn't exists %s\n", spaceBean.externalId);
+            return true;
         }
+        return update(space, spaceBean);
     }
 
-    private String getNewSpaceId(String externalId) {
+    String getNewSpaceId(String externalId) {
         final long oid = Long.parseLong(externalId);
         final int idInternal = (int) (oid & 0x0000FFFF);
         final long cid = getSpaceCID() << 32;
@@ -661,24 +1030,52 @@ public class ImportSpacesTask extends CustomTask {
         }
     }
 
-    private void update(Space space, SpaceBean spaceBean) {
-        for (InformationBean infoBean : spaceBean.beans()) {
+    /**
+     * When so configured, quarantines the bean instead of failing the whole import when it refers to a classification that
+     * doesn't exist, which is found before anything is written to the space.
+     *
+     * @return false if the bean was quarantined
+     */
+    private boolean update(Space space, SpaceBean spaceBean) {
+        final Set<InformationBean> informations;
+        try {
+            informations = spaceBean.beans(classificationResolver);
+        } catch (UnknownClassificationException e) {
+            if (!config.isSkipUnknownClassifications()) {
+                throw e;
+            }
+            MigrationEvents.quarantinedBean(spaceBean.externalId, e.getMessage());
+            log("Quarantine space %s: %s\n", spaceBean.externalId, e.getMessage());
+            return false;
+        }
+
+        for (InformationBean infoBean : informations) {
             if (spaceBean.examCapacity != null) {
                 infoBean.getMetadata().put("examCapacity", spaceBean.examCapacity.toString());
             }
             if (infoBean.getAllocatableCapacity() == null && spaceBean.normalCapacity != null) {
                 infoBean.setAllocatableCapacity(spaceBean.normalCapacity);
             }
+            TransactionMonitor.touch(infoBean.getClassification());
             space.bean(infoBean);
         }
 
         space.setCreated(DateTimeFormat.forPattern("dd/MM/yyyy").parseDateTime(spaceBean.createdOn));
+        space.setOccupationsAccessGroup(getOccupationsAccessGroup(spaceBean));
+        space.setManagementAccessGroup(getManagementAccessGroup(spaceBean));
+        return true;
+    }
+
+    Group getOccupationsAccessGroup(SpaceBean spaceBean) {
         final PersistentGroup occupationGroup = FenixFramework.getDomainObject(spaceBean.occupationGroup);
         final PersistentGroup lessonOccupationsAccessGroup =
                 FenixFramework.getDomainObject(spaceBean.lessonOccupationsAccessGroup);
         final PersistentGroup writtenEvaluationOccupationsAccessGroup =
                 FenixFramework.getDomainObject(spaceBean.writtenEvaluationOccupationsAccessGroup);
-        final PersistentGroup managementGroup = FenixFramework.getDomainObject(spaceBean.managementSpaceGroup);
+
+        TransactionMonitor.touch(occupationGroup);
+        TransactionMonitor.touch(lessonOccupationsAccessGroup);
+        TransactionMonitor.touch(writtenEvaluationOccupationsAccessGroup);
 
         Group group = NobodyGroup.get();
 
@@ -694,12 +1091,12 @@ public class ImportSpacesTask extends CustomTask {
             group = group.or(writtenEvaluationOccupationsAccessGroup.toGroup());
         }
 
-        space.setOccupationsAccessGroup(group.equals(NobodyGroup.get()) ? null : group);
+        return group.equals(NobodyGroup.get()) ? null : group;
+    }
 
-        if (FenixFramework.isDomainObjectValid(managementGroup)) {
-            space.setManagementAccessGroup(managementGroup.toGroup());
-        } else {
-            space.setManagementAccessGroup((Group) null);
-        }
+    Group getManagementAccessGroup(SpaceBean spaceBean) {
+        final PersistentGroup managementGroup = FenixFramework.getDomainObject(spaceBean.managementSpaceGroup);
+        TransactionMonitor.touch(managementGroup);
+        return FenixFramework.isDomainObjectValid(managementGroup) ? managementGroup.toGroup() : null;
     }
 }
\ No newline at end of file
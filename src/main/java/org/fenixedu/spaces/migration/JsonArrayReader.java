@@ -0,0 +1,69 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Streams the elements of a top level json array one at a time, so that dumps with hundreds of thousands of entries don't have
+ * to be materialized as a single list.
+ */
+public class JsonArrayReader<T> implements Iterator<T>, Closeable {
+
+    private final Gson gson;
+    private final Type type;
+    private final JsonReader reader;
+
+    public JsonArrayReader(Gson gson, Reader reader, Type type) {
+        this.gson = gson;
+        this.type = type;
+        this.reader = new JsonReader(reader);
+        try {
+            this.reader.beginArray();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return reader.hasNext();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return gson.fromJson(reader, type);
+    }
+
+    /**
+     * Reads up to size elements, returning an empty list when the array is exhausted.
+     */
+    public List<T> next(int size) {
+        final List<T> chunk = new ArrayList<>(size);
+        while (chunk.size() < size && hasNext()) {
+            chunk.add(next());
+        }
+        return chunk;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,81 @@
+package org.fenixedu.spaces.migration;
+
+/**
+ * Flight recorder events of the migration tasks, so a recording shows where an import spent its time instead of anonymous
+ * framework and Gson frames. They cost next to nothing unless a recording with them enabled is running.
+ *
+ * The tasks run on runtimes without the jdk.jfr API too, so they only go through these methods, which do nothing there. The
+ * begin methods then return null, which the other methods accept.
+ */
+public final class MigrationEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private MigrationEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, MigrationEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static Object beginPhase() {
+        return AVAILABLE ? FlightRecorderEvents.beginPhase() : null;
+    }
+
+    public static Object beginPartitionCommit() {
+        return AVAILABLE ? FlightRecorderEvents.beginPartitionCommit() : null;
+    }
+
+    public static Object beginBlueprintDecode() {
+        return AVAILABLE ? FlightRecorderEvents.beginBlueprintDecode() : null;
+    }
+
+    public static void end(Object event) {
+        if (event != null) {
+            FlightRecorderEvents.end(event);
+        }
+    }
+
+    /**
+     * Whether the event is recorded, to skip working out its values when it isn't.
+     */
+    public static boolean shouldCommit(Object event) {
+        return event != null && FlightRecorderEvents.shouldCommit(event);
+    }
+
+    public static void commitPhase(Object event, String task, String phase, long processed) {
+        if (event != null) {
+            FlightRecorderEvents.commitPhase(event, task, phase, processed);
+        }
+    }
+
+    public static void commitPartitionCommit(Object event, String transaction, int beans, long bytes, int retries,
+            int quarantined) {
+        if (event != null) {
+            FlightRecorderEvents.commitPartitionCommit(event, transaction, beans, bytes, retries, quarantined);
+        }
+    }
+
+    public static void commitBlueprintDecode(Object event, String space, long encoded, long decoded) {
+        if (event != null) {
+            FlightRecorderEvents.commitBlueprintDecode(event, space, encoded, decoded);
+        }
+    }
+
+    public static void classificationMiss(String space, String code) {
+        if (AVAILABLE) {
+            FlightRecorderEvents.classificationMiss(space, code);
+        }
+    }
+
+    public static void quarantinedBean(String space, String reason) {
+        if (AVAILABLE) {
+            FlightRecorderEvents.quarantinedBean(space, reason);
+        }
+    }
+}
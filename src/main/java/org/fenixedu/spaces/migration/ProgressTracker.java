@@ -0,0 +1,178 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.Files;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Reports how far a phase has gone through its input. Progress is measured in bytes consumed from the dump, so it works while
+ * the dump is still being streamed, and the throughput is smoothed over the last reports to give a usable ETA. When no input is
+ * {@link #track(InputStream) tracked}, or once the phase {@link #countItems(long) counts items}, progress is measured in
+ * processed items against a total instead.
+ */
+public class ProgressTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressTracker.class);
+
+    private static final double SMOOTHING = 0.3;
+
+    private final String name;
+    private long total;
+    private final File statusFile;
+    private final Consumer<String> log;
+    private final long start = System.currentTimeMillis();
+    private final AtomicLong processed = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    private CountingInputStream counter;
+    private boolean byItems;
+    private long lastTime = start;
+    private long lastBytes;
+    private long lastProcessed;
+    private double bytesPerSecond = -1;
+    private double beansPerSecond = -1;
+
+    public ProgressTracker(ImportPhase phase, long totalBytes, long intervalSeconds, File statusFile, Consumer<String> log) {
+        this(phase.name(), totalBytes, intervalSeconds, statusFile, log);
+    }
+
+    /**
+     * @param total bytes of the tracked input, or items to process if no input is tracked
+     */
+    public ProgressTracker(final String name, long total, long intervalSeconds, File statusFile, Consumer<String> log) {
+        this.name = name;
+        this.total = total;
+        this.statusFile = statusFile;
+        this.log = log;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "import-progress-" + name.toLowerCase());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (intervalSeconds > 0) {
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report(false);
+                }
+            }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Wraps the input of the phase so the bytes read from it are counted.
+     */
+    public InputStream track(InputStream in) {
+        counter = new CountingInputStream(in);
+        return counter;
+    }
+
+    /**
+     * Measures progress in processed items against the given total from now on, for a phase that reads its whole input before
+     * processing any of it and would otherwise show as done once the input is read.
+     */
+    public synchronized void countItems(long total) {
+        this.total = total;
+        this.byItems = true;
+    }
+
+    public void processed(long count) {
+        processed.addAndGet(count);
+    }
+
+    public long getBytesRead() {
+        return counter == null ? 0 : counter.getCount();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public void finish() {
+        scheduler.shutdownNow();
+        report(true);
+    }
+
+    private synchronized void report(boolean finished) {
+        final long now = System.currentTimeMillis();
+        final long bytes = getBytesRead();
+        final long beans = getProcessed();
+
+        if (now > lastTime) {
+            final double seconds = (now - lastTime) / 1000d;
+            bytesPerSecond = smooth(bytesPerSecond, (bytes - lastBytes) / seconds);
+            beansPerSecond = smooth(beansPerSecond, (beans - lastProcessed) / seconds);
+        }
+        lastTime = now;
+        lastBytes = bytes;
+        lastProcessed = beans;
+
+        final boolean byBytes = counter != null && !byItems;
+        final long done = byBytes ? bytes : beans;
+        final double rate = byBytes ? bytesPerSecond : beansPerSecond;
+        final long eta = finished || rate <= 0 ? -1 : Math.round((total - done) / rate);
+        final double percent = total > 0 ? done * 100d / total : 0;
+
+        if (byBytes) {
+            log.accept(String.format("%s %s: %.1f%% (%d / %d bytes), %d beans, %.1f beans/s, %.1f KB/s, eta %s", name,
+                    finished ? "finished" : "progress", percent, bytes, total, beans, beansPerSecond, bytesPerSecond / 1024,
+                    eta < 0 ? "-" : eta + "s"));
+        } else {
+            log.accept(String.format("%s %s: %.1f%% (%d / %d), %.1f/s, eta %s", name, finished ? "finished" : "progress",
+                    percent, beans, total, beansPerSecond, eta < 0 ? "-" : eta + "s"));
+        }
+
+        if (statusFile != null) {
+            final Map<String, Object> status = new LinkedHashMap<>();
+            status.put("phase", name);
+            status.put("finished", finished);
+            status.put("updatedAt", new DateTime(now).toString());
+            status.put("elapsedSeconds", (now - start) / 1000);
+            status.put("bytesRead", bytes);
+            status.put(byBytes ? "totalBytes" : "total", total);
+            status.put("percent", percent);
+            status.put("processed", beans);
+            status.put("beansPerSecond", beansPerSecond);
+            status.put("bytesPerSecond", bytesPerSecond);
+            status.put("etaSeconds", eta);
+            writeStatus(status);
+        }
+    }
+
+    private static double smooth(double previous, double current) {
+        return previous < 0 ? current : SMOOTHING * current + (1 - SMOOTHING) * previous;
+    }
+
+    private void writeStatus(Map<String, Object> status) {
+        // written aside and moved so pollers never see a half written file
+        final File tmp = new File(statusFile.getPath() + ".tmp");
+        try {
+            Files.write(new GsonBuilder().setPrettyPrinting().create().toJson(status), tmp, StandardCharsets.UTF_8);
+            java.nio.file.Files.move(tmp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Can't write import status to " + statusFile, e);
+        }
+    }
+}
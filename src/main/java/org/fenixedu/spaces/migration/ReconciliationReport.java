@@ -0,0 +1,90 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * Thread safe tally of the differences found between the source dump and the persisted spaces.
+ */
+public class ReconciliationReport {
+
+    public static enum Mismatch {
+        MISSING_SPACE, UNRESOLVED_INFORMATION, INFORMATION_COUNT, CLASSIFICATION, CAPACITY, BLUEPRINT, CREATED,
+        OCCUPATIONS_ACCESS_GROUP, MANAGEMENT_ACCESS_GROUP
+    }
+
+    private static final int MAX_SAMPLES = 20;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final Map<Mismatch, AtomicLong> counts = new EnumMap<>(Mismatch.class);
+    private final Map<Mismatch, Queue<String>> samples = new EnumMap<>(Mismatch.class);
+    private long elapsed;
+
+    public ReconciliationReport() {
+        for (Mismatch mismatch : Mismatch.values()) {
+            counts.put(mismatch, new AtomicLong());
+            samples.put(mismatch, new ConcurrentLinkedQueue<String>());
+        }
+    }
+
+    public void checked(boolean ok) {
+        checked.incrementAndGet();
+        if (ok) {
+            matched.incrementAndGet();
+        }
+    }
+
+    public void mismatch(Mismatch mismatch, String externalId, String detail) {
+        if (counts.get(mismatch).incrementAndGet() <= MAX_SAMPLES) {
+            samples.get(mismatch).add(externalId + " " + detail);
+        }
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getMatched() {
+        return matched.get();
+    }
+
+    public long getCount(Mismatch mismatch) {
+        return counts.get(mismatch).get();
+    }
+
+    public void setElapsed(long elapsed) {
+        this.elapsed = elapsed;
+    }
+
+    public List<String> lines() {
+        final List<String> lines = new ArrayList<>();
+        lines.add(String.format("checked %d spaces in %d ms, %d match, %d with differences", getChecked(), elapsed,
+                getMatched(), getChecked() - getMatched()));
+        for (Mismatch mismatch : Mismatch.values()) {
+            final long count = getCount(mismatch);
+            if (count > 0) {
+                lines.add(String.format("%s : %d", mismatch, count));
+                for (String sample : samples.get(mismatch)) {
+                    lines.add("    " + sample);
+                }
+            }
+        }
+        return lines;
+    }
+
+    public void write(File file) throws IOException {
+        Files.write(Joiner.on("\n").join(lines()) + "\n", file, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,277 @@
+package org.fenixedu.spaces.migration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fenixedu.spaces.migration.ImportSpacesTask.SpaceBean;
+
+import com.google.common.base.Strings;
+
+/**
+ * The space forest described by the parentExternalId of each {@link SpaceBean}, kept in flat int arrays indexed by the position
+ * of the bean in the dump. Used to hand the beans to the importer so that parents come before their children and each batch
+ * covers whole subtrees where possible.
+ *
+ * Beans whose parent isn't in the dump, and beans caught in a parent cycle, are treated as roots.
+ */
+public class SpaceHierarchy {
+
+    public static enum Ordering {
+        /** as they appear in the dump, which allows streaming it */
+        FILE,
+        /** level by level, each level a stage whose batches can run concurrently */
+        BREADTH_FIRST,
+        /** whole subtrees packed into batches, a subtree larger than a batch going on in the batches of later stages */
+        SUBTREE
+    }
+
+    private final List<SpaceBean> beans;
+    private final int[] roots;
+    // children of node i are childIndex[childStart[i]] ... childIndex[childStart[i + 1] - 1]
+    private final int[] childStart;
+    private final int[] childIndex;
+
+    private SpaceHierarchy(List<SpaceBean> beans, int[] roots, int[] childStart, int[] childIndex) {
+        this.beans = beans;
+        this.roots = roots;
+        this.childStart = childStart;
+        this.childIndex = childIndex;
+    }
+
+    public static SpaceHierarchy build(List<SpaceBean> beans) {
+        final int size = beans.size();
+        final IdIndex index = new IdIndex(size);
+        for (int i = 0; i < size; i++) {
+            index.putIfAbsent(id(beans.get(i).externalId), i);
+        }
+
+        final int[] parent = new int[size];
+        final int[] childCount = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            final String parentId = beans.get(i).parentExternalId;
+            parent[i] = Strings.isNullOrEmpty(parentId) ? -1 : index.get(id(parentId));
+            if (parent[i] == i) {
+                parent[i] = -1;
+            }
+        }
+        breakCycles(parent);
+
+        int rootCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (parent[i] < 0) {
+                rootCount++;
+            } else {
+                childCount[parent[i]]++;
+            }
+        }
+
+        final int[] roots = new int[rootCount];
+        final int[] childStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            childStart[i + 1] = childStart[i] + childCount[i];
+        }
+        final int[] fill = Arrays.copyOf(childStart, size);
+        final int[] childIndex = new int[size - rootCount];
+        int r = 0;
+        for (int i = 0; i < size; i++) {
+            if (parent[i] < 0) {
+                roots[r++] = i;
+            } else {
+                childIndex[fill[parent[i]]++] = i;
+            }
+        }
+        return new SpaceHierarchy(beans, roots, childStart, childIndex);
+    }
+
+    /**
+     * Detaches one node of every parent cycle so that every node is reachable from a root.
+     */
+    private static void breakCycles(int[] parent) {
+        // 0 unvisited, 1 on the current path, 2 known to reach a root
+        final byte[] state = new byte[parent.length];
+        for (int i = 0; i < parent.length; i++) {
+            int node = i;
+            while (node >= 0 && state[node] == 0) {
+                state[node] = 1;
+                final int next = parent[node];
+                if (next >= 0 && state[next] == 1) {
+                    parent[node] = -1;
+                    break;
+                }
+                node = next;
+            }
+            node = i;
+            while (node >= 0 && state[node] == 1) {
+                state[node] = 2;
+                node = parent[node];
+            }
+        }
+    }
+
+    private static long id(String externalId) {
+        return Long.parseLong(externalId);
+    }
+
+    public int size() {
+        return beans.size();
+    }
+
+    public int getRootCount() {
+        return roots.length;
+    }
+
+    /**
+     * Groups the beans into stages of batches. Stages must be run one after the other, the batches of a stage may run in any
+     * order or concurrently.
+     */
+    public List<List<List<SpaceBean>>> stages(Ordering ordering, int batchSize) {
+        switch (ordering) {
+        case BREADTH_FIRST:
+            return breadthFirst(batchSize);
+        case SUBTREE:
+            return subtrees(batchSize);
+        default:
+            final List<List<List<SpaceBean>>> stages = new ArrayList<>();
+            stages.add(chunk(beans, batchSize));
+            return stages;
+        }
+    }
+
+    private List<List<List<SpaceBean>>> breadthFirst(int batchSize) {
+        final List<List<List<SpaceBean>>> stages = new ArrayList<>();
+        int[] level = roots;
+        while (level.length > 0) {
+            final List<SpaceBean> levelBeans = new ArrayList<>(level.length);
+            int next = 0;
+            for (int node : level) {
+                levelBeans.add(beans.get(node));
+                next += childStart[node + 1] - childStart[node];
+            }
+            stages.add(chunk(levelBeans, batchSize));
+
+            // siblings stay together, so batches follow the parents of the level above
+            final int[] nextLevel = new int[next];
+            int n = 0;
+            for (int node : level) {
+                for (int c = childStart[node]; c < childStart[node + 1]; c++) {
+                    nextLevel[n++] = childIndex[c];
+                }
+            }
+            level = nextLevel;
+        }
+        return stages;
+    }
+
+    private List<List<List<SpaceBean>>> subtrees(int batchSize) {
+        final int[] subtreeSize = subtreeSizes();
+        final List<List<List<SpaceBean>>> stages = new ArrayList<>();
+        List<SpaceBean> batch = new ArrayList<>(batchSize);
+        int stage = 0;
+        final int[] stack = new int[beans.size()];
+        for (int root : roots) {
+            // a subtree that doesn't fit what is left of the batch starts a new one
+            if (!batch.isEmpty() && batch.size() + subtreeSize[root] > batchSize) {
+                addBatch(stages, stage, batch);
+                batch = new ArrayList<>(batchSize);
+                stage = 0;
+            }
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                final int node = stack[--top];
+                batch.add(beans.get(node));
+                for (int c = childStart[node + 1] - 1; c >= childStart[node]; c--) {
+                    stack[top++] = childIndex[c];
+                }
+                if (batch.size() == batchSize) {
+                    addBatch(stages, stage, batch);
+                    batch = new ArrayList<>(batchSize);
+                    // the rest of a split subtree needs the ancestors in the batch just closed
+                    stage = top > 0 ? stage + 1 : 0;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            addBatch(stages, stage, batch);
+        }
+        return stages;
+    }
+
+    private static void addBatch(List<List<List<SpaceBean>>> stages, int stage, List<SpaceBean> batch) {
+        while (stages.size() <= stage) {
+            stages.add(new ArrayList<List<SpaceBean>>());
+        }
+        stages.get(stage).add(batch);
+    }
+
+    private int[] subtreeSizes() {
+        final int size = beans.size();
+        final int[] order = new int[size];
+        int head = 0, tail = 0;
+        for (int root : roots) {
+            order[tail++] = root;
+        }
+        while (head < tail) {
+            final int node = order[head++];
+            for (int c = childStart[node]; c < childStart[node + 1]; c++) {
+                order[tail++] = childIndex[c];
+            }
+        }
+        final int[] subtreeSize = new int[size];
+        for (int i = tail - 1; i >= 0; i--) {
+            final int node = order[i];
+            subtreeSize[node] += 1;
+            for (int c = childStart[node]; c < childStart[node + 1]; c++) {
+                subtreeSize[node] += subtreeSize[childIndex[c]];
+            }
+        }
+        return subtreeSize;
+    }
+
+    private static List<List<SpaceBean>> chunk(List<SpaceBean> beans, int batchSize) {
+        final List<List<SpaceBean>> batches = new ArrayList<>();
+        for (int i = 0; i < beans.size(); i += batchSize) {
+            batches.add(new ArrayList<>(beans.subList(i, Math.min(beans.size(), i + batchSize))));
+        }
+        return batches;
+    }
+
+    /**
+     * Open addressing map from external id to bean position, to avoid boxing a Long and an Integer per space.
+     */
+    private static class IdIndex {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+
+        IdIndex(int expected) {
+            final int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(values, -1);
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (values[slot] >= 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void putIfAbsent(long key, int value) {
+            final int slot = slot(key);
+            if (values[slot] < 0) {
+                keys[slot] = key;
+                values[slot] = value;
+            }
+        }
+
+        int get(long key) {
+            return values[slot(key)];
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.fenixedu.spaces.migration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.fenixedu.bennu.core.groups.Group;
+import org.fenixedu.spaces.domain.Information;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
+import org.fenixedu.spaces.migration.ImportSpacesTask.SpaceBean;
+import org.fenixedu.spaces.migration.ReconciliationReport.Mismatch;
+import org.fenixedu.spaces.ui.InformationBean;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.atomic.AtomicInstance;
+
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+/**
+ * Re-reads the spaces dump after an import and checks, in read only transactions spread over a pool of workers, that every
+ * {@link Space} holds what its {@link SpaceBean} describes.
+ *
+ * When called inside a transaction, as from the scheduler, the import it checks isn't committed yet and would be invisible to
+ * the workers, so the checks then run in the calling thread and its transaction.
+ */
+public class SpaceReconciler {
+
+    private final ImportSpacesTask task;
+    private final int workers;
+    private final int chunkSize;
+
+    public SpaceReconciler(ImportSpacesTask task, int workers, int chunkSize) {
+        this.task = task;
+        this.workers = Math.max(1, workers);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public ReconciliationReport reconcile(Gson gson, File spacesFile, final ProgressTracker progress) throws IOException {
+        final ReconciliationReport report = new ReconciliationReport();
+        final long start = System.currentTimeMillis();
+        if (TransactionMonitor.inTransaction()) {
+            reconcileInThread(gson, spacesFile, progress, report);
+            report.setElapsed(System.currentTimeMillis() - start);
+            return report;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        // bounds the number of parsed chunks waiting for a worker
+        final Semaphore inFlight = new Semaphore(workers * 2);
+        final List<Future<Void>> futures = Lists.newArrayList();
+        try (JsonArrayReader<SpaceBean> reader =
+                new JsonArrayReader<>(gson, new InputStreamReader(progress.track(new FileInputStream(spacesFile)),
+                        StandardCharsets.UTF_8), SpaceBean.class)) {
+            List<SpaceBean> chunk;
+            while (!(chunk = reader.next(chunkSize)).isEmpty()) {
+                inFlight.acquireUninterruptibly();
+                final List<SpaceBean> partition = chunk;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            checkPartition(partition, report);
+                            progress.processed(partition.size());
+                        } finally {
+                            inFlight.release();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report.setElapsed(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private void reconcileInThread(Gson gson, File spacesFile, ProgressTracker progress, ReconciliationReport report)
+            throws IOException {
+        try (JsonArrayReader<SpaceBean> reader =
+                new JsonArrayReader<>(gson, new InputStreamReader(progress.track(new FileInputStream(spacesFile)),
+                        StandardCharsets.UTF_8), SpaceBean.class)) {
+            List<SpaceBean> chunk;
+            while (!(chunk = reader.next(chunkSize)).isEmpty()) {
+                checkBeans(chunk, report);
+                progress.processed(chunk.size());
+            }
+        }
+    }
+
+    private void checkPartition(final List<SpaceBean> partition, final ReconciliationReport report) throws Exception {
+        FenixFramework.getTransactionManager().withTransaction(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                checkBeans(partition, report);
+                return null;
+            }
+        }, new AtomicInstance(TxMode.READ, true));
+    }
+
+    private void checkBeans(List<SpaceBean> beans, ReconciliationReport report) {
+        for (SpaceBean bean : beans) {
+            if (bean != null) {
+                report.checked(check(bean, report));
+            }
+        }
+    }
+
+    private boolean check(SpaceBean spaceBean, ReconciliationReport report) {
+        final String externalId = spaceBean.externalId;
+        final Space space = FenixFramework.getDomainObject(task.getNewSpaceId(externalId));
+        if (!FenixFramework.isDomainObjectValid(space)) {
+            report.mismatch(Mismatch.MISSING_SPACE, externalId, "");
+            return false;
+        }
+
+        boolean ok = true;
+
+        final Set<InformationBean> beans;
+        try {
+            beans = spaceBean.beans(task.getClassificationResolver());
+        } catch (RuntimeException e) {
+            report.mismatch(Mismatch.UNRESOLVED_INFORMATION, externalId, e.getMessage());
+            return false;
+        }
+
+        final int imported = importedInformations(space, beans);
+        if (imported != beans.size()) {
+            report.mismatch(Mismatch.INFORMATION_COUNT, externalId, String.format("expected %d got %d", beans.size(), imported));
+            ok = false;
+        }
+
+        final InformationBean current = current(beans);
+        if (current != null) {
+            final SpaceClassification classification = space.getClassification();
+            if (!Objects.equals(current.getClassification(), classification)) {
+                report.mismatch(Mismatch.CLASSIFICATION, externalId,
+                        String.format("expected %s got %s", code(current.getClassification()), code(classification)));
+                ok = false;
+            }
+
+            Integer capacity = current.getAllocatableCapacity();
+            if (capacity == null) {
+                capacity = spaceBean.normalCapacity;
+            }
+            if (!Objects.equals(capacity, space.getAllocatableCapacity())) {
+                report.mismatch(Mismatch.CAPACITY, externalId,
+                        String.format("expected %s got %s", capacity, space.getAllocatableCapacity()));
+                ok = false;
+            }
+
+            final boolean expectsBlueprint = current.getRawBlueprint() != null;
+            if (expectsBlueprint != (space.getBlueprintFile() != null)) {
+                report.mismatch(Mismatch.BLUEPRINT, externalId, expectsBlueprint ? "missing" : "unexpected");
+                ok = false;
+            }
+        }
+
+        final DateTime created = DateTimeFormat.forPattern("dd/MM/yyyy").parseDateTime(spaceBean.createdOn);
+        if (space.getCreated() == null || !created.isEqual(space.getCreated())) {
+            report.mismatch(Mismatch.CREATED, externalId, String.format("expected %s got %s", created, space.getCreated()));
+            ok = false;
+        }
+
+        final Group occupationsGroup = task.getOccupationsAccessGroup(spaceBean);
+        if (!Objects.equals(occupationsGroup, space.getOccupationsAccessGroup())) {
+            report.mismatch(Mismatch.OCCUPATIONS_ACCESS_GROUP, externalId,
+                    String.format("expected %s got %s", occupationsGroup, space.getOccupationsAccessGroup()));
+            ok = false;
+        }
+
+        final Group managementGroup = task.getManagementAccessGroup(spaceBean);
+        if (!Objects.equals(managementGroup, space.getManagementAccessGroup())) {
+            report.mismatch(Mismatch.MANAGEMENT_ACCESS_GROUP, externalId,
+                    String.format("expected %s got %s", managementGroup, space.getManagementAccessGroup()));
+            ok = false;
+        }
+
+        return ok;
+    }
+
+    /**
+     * The information that is in effect, that is, the open ended one or failing that the most recent.
+     */
+    /**
+     * Counts the informations of the space that start when one from the dump does. The space may have informations of its own
+     * from before the import, which the dump knows nothing about and which would otherwise count as extra.
+     */
+    private static int importedInformations(Space space, Set<InformationBean> beans) {
+        final Set<Long> starts = new HashSet<>();
+        for (InformationBean bean : beans) {
+            starts.add(millis(bean.getValidFrom()));
+        }
+        int imported = 0;
+        for (Information information : space.timeline()) {
+            if (starts.contains(millis(information.getValidFrom()))) {
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    private static Long millis(DateTime dateTime) {
+        return dateTime == null ? null : dateTime.getMillis();
+    }
+
+    private static InformationBean current(Set<InformationBean> beans) {
+        InformationBean current = null;
+        for (InformationBean bean : beans) {
+            if (current == null) {
+                current = bean;
+            } else if (current.getValidUntil() != null
+                    && (bean.getValidUntil() == null || bean.getValidFrom() != null
+                            && (current.getValidFrom() == null || bean.getValidFrom().isAfter(current.getValidFrom())))) {
+                current = bean;
+            }
+        }
+        return current;
+    }
+
+    private static String code(SpaceClassification classification) {
+        return classification == null ? null : classification.getAbsoluteCode();
+    }
+}
@@ -0,0 +1,66 @@
+package org.fenixedu.spaces.migration;
+
+/**
+ * The classifications of the spaces that aren't rooms, kept under other spaces ({@value #PARENT_CODE}). Both the default
+ * catalogue and the imported one get them with these codes, and the import looks them up by the type of the space in the dump.
+ */
+public enum SpaceType {
+    CAMPUS("Campus", "3", "Campus", "Campus"),
+    ROOM_SUBDIVISION("RoomSubdivision", "4", "Room Subdivision", "Subdivisão de Sala"),
+    BUILDING("Building", "5", "Building", "Edifício"),
+    FLOOR("Floor", "6", "Floor", "Piso");
+
+    public static final String PARENT_CODE = "11";
+
+    private final String dumpType;
+    private final String code;
+    private final String nameEN;
+    private final String namePT;
+
+    private SpaceType(String dumpType, String code, String nameEN, String namePT) {
+        this.dumpType = dumpType;
+        this.code = code;
+        this.nameEN = nameEN;
+        this.namePT = namePT;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getAbsoluteCode() {
+        return PARENT_CODE + "." + code;
+    }
+
+    public String getNameEN() {
+        return nameEN;
+    }
+
+    public String getNamePT() {
+        return namePT;
+    }
+
+    /**
+     * @return the space type of the given type in the dump, or null for rooms and unknown types
+     */
+    public static SpaceType ofDumpType(String type) {
+        for (SpaceType spaceType : values()) {
+            if (spaceType.dumpType.equals(type)) {
+                return spaceType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the space type with the given english name, or null if the classification is not a space type
+     */
+    public static SpaceType ofNameEN(String name) {
+        for (SpaceType spaceType : values()) {
+            if (spaceType.nameEN.equals(name)) {
+                return spaceType;
+            }
+        }
+        return null;
+    }
+}
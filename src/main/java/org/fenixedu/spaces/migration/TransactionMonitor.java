@@ -0,0 +1,200 @@
+package org.fenixedu.spaces.migration;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.ist.fenixframework.CallableWithoutException;
+import pt.ist.fenixframework.DomainObject;
+import pt.ist.fenixframework.FenixFramework;
+
+/**
+ * Runs the importer transactions and keeps track of how often they are restarted and how much time the discarded attempts took.
+ *
+ * The framework doesn't tell which objects caused a restart, so the importer reports the shared objects it touches (root sets,
+ * classifications, groups) with {@link #touch(DomainObject)}, and every object touched by an attempt that was later restarted is
+ * counted as a suspect. The objects with the most restarts are the hot spots.
+ */
+public class TransactionMonitor {
+
+    private static final int TOP_SUSPECTS = 20;
+
+    private static final ThreadLocal<Set<String>> touched = new ThreadLocal<>();
+    private static final ThreadLocal<Integer> lastAttempts = new ThreadLocal<>();
+
+    private static class LabelStats {
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong restarted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong wastedNanos = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+    }
+
+    private final ConcurrentMap<String, LabelStats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> suspects = new ConcurrentHashMap<>();
+
+    /**
+     * Records the object as used by the transaction running in this thread, if any.
+     */
+    public static void touch(DomainObject object) {
+        final Set<String> objects = touched.get();
+        if (objects != null && object != null) {
+            objects.add(object.getClass().getSimpleName() + ":" + object.getExternalId());
+        }
+    }
+
+    /**
+     * Whether this thread runs inside a transaction, typically the one the scheduler wraps a task in. Anything written in it
+     * stays invisible to other threads until the task returns.
+     */
+    public static boolean inTransaction() {
+        return FenixFramework.getTransaction() != null;
+    }
+
+    /**
+     * How many times the body of the last transaction run by this thread was executed.
+     */
+    public static int lastAttempts() {
+        final Integer attempts = lastAttempts.get();
+        return attempts == null ? 0 : attempts;
+    }
+
+    public <T> T withTransaction(String label, final CallableWithoutException<T> command) {
+        final LabelStats labelStats = stats(label);
+        final long start = System.nanoTime();
+        final long[] attemptStart = new long[1];
+        final int[] attempts = new int[1];
+        final List<Set<String>> attemptObjects = new ArrayList<>();
+        boolean success = false;
+        try {
+            final T result = FenixFramework.getTransactionManager().withTransaction(new CallableWithoutException<T>() {
+
+                @Override
+                public T call() {
+                    final long now = System.nanoTime();
+                    if (attempts[0] > 0) {
+                        // the previous attempt was thrown away
+                        labelStats.wastedNanos.addAndGet(now - attemptStart[0]);
+                        for (String object : attemptObjects.get(attemptObjects.size() - 1)) {
+                            suspect(object);
+                        }
+                    }
+                    attempts[0]++;
+                    attemptStart[0] = now;
+                    final Set<String> objects = new HashSet<>();
+                    attemptObjects.add(objects);
+                    final Set<String> outer = touched.get();
+                    touched.set(objects);
+                    try {
+                        return command.call();
+                    } finally {
+                        if (outer == null) {
+                            touched.remove();
+                        } else {
+                            outer.addAll(objects);
+                            touched.set(outer);
+                        }
+                    }
+                }
+            });
+            success = true;
+            return result;
+        } finally {
+            lastAttempts.set(attempts[0]);
+            labelStats.transactions.incrementAndGet();
+            labelStats.attempts.addAndGet(attempts[0]);
+            if (attempts[0] > 1) {
+                labelStats.restarted.incrementAndGet();
+            }
+            if (!success) {
+                labelStats.failed.incrementAndGet();
+            }
+            labelStats.totalNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private LabelStats stats(String label) {
+        LabelStats labelStats = stats.get(label);
+        if (labelStats == null) {
+            stats.putIfAbsent(label, new LabelStats());
+            labelStats = stats.get(label);
+        }
+        return labelStats;
+    }
+
+    private void suspect(String object) {
+        AtomicLong count = suspects.get(object);
+        if (count == null) {
+            suspects.putIfAbsent(object, new AtomicLong());
+            count = suspects.get(object);
+        }
+        count.incrementAndGet();
+    }
+
+    public long getRestarts() {
+        long restarts = 0;
+        for (LabelStats labelStats : stats.values()) {
+            restarts += labelStats.attempts.get() - labelStats.transactions.get();
+        }
+        return restarts;
+    }
+
+    public List<Map.Entry<String, Long>> hotSpots() {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> entry : suspects.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return Long.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        return entries.subList(0, Math.min(TOP_SUSPECTS, entries.size()));
+    }
+
+    public List<String> lines() {
+        final List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LabelStats> entry : stats.entrySet()) {
+            final LabelStats labelStats = entry.getValue();
+            lines.add(String.format("%s: %d transactions, %d attempts, %d restarted, %d failed, %d ms wasted of %d ms",
+                    entry.getKey(), labelStats.transactions.get(), labelStats.attempts.get(), labelStats.restarted.get(),
+                    labelStats.failed.get(), labelStats.wastedNanos.get() / 1000000, labelStats.totalNanos.get() / 1000000));
+        }
+        for (Map.Entry<String, Long> hotSpot : hotSpots()) {
+            lines.add(String.format("    %s in %d restarted attempts", hotSpot.getKey(), hotSpot.getValue()));
+        }
+        return lines;
+    }
+
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, LabelStats> entry : stats.entrySet()) {
+            final LabelStats labelStats = entry.getValue();
+            final Map<String, Object> label = new LinkedHashMap<>();
+            label.put("transactions", labelStats.transactions.get());
+            label.put("attempts", labelStats.attempts.get());
+            label.put("restarted", labelStats.restarted.get());
+            label.put("failed", labelStats.failed.get());
+            label.put("wastedMillis", labelStats.wastedNanos.get() / 1000000);
+            label.put("totalMillis", labelStats.totalNanos.get() / 1000000);
+            map.put(entry.getKey(), label);
+        }
+        final Map<String, Long> hotSpots = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> hotSpot : hotSpots()) {
+            hotSpots.put(hotSpot.getKey(), hotSpot.getValue());
+        }
+        map.put("hotSpots", hotSpots);
+        return map;
+    }
+}
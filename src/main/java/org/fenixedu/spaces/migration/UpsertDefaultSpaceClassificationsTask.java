@@ -0,0 +1,13 @@
+package org.fenixedu.spaces.migration;
+
+/**
+ * {@link CreateDefaultSpaceClassificationsTask} in upsert mode, for the scheduler, which can only create tasks through their no
+ * argument constructor. Adds what is missing of the default catalogue to the existing classifications, which are left as they
+ * are.
+ */
+public class UpsertDefaultSpaceClassificationsTask extends CreateDefaultSpaceClassificationsTask {
+
+    public UpsertDefaultSpaceClassificationsTask() {
+        super(true);
+    }
+}
@@ -0,0 +1,21 @@
+package org.fenixedu.spaces.migration;
+
+import java.util.EnumSet;
+
+/**
+ * Runs only the classifications phase of {@link ImportSpacesTask}, in upsert mode, so a changed classifications dump can be
+ * applied from the scheduler without re-importing the spaces.
+ */
+public class UpsertSpaceClassificationsTask extends ImportSpacesTask {
+
+    public UpsertSpaceClassificationsTask() {
+        super(upsertConfig());
+    }
+
+    private static ImportSpacesConfig upsertConfig() {
+        final ImportSpacesConfig config = new ImportSpacesConfig();
+        config.setPhases(EnumSet.of(ImportPhase.CLASSIFICATIONS));
+        config.setUpsertClassifications(true);
+        return config;
+    }
+}
@@ -0,0 +1,163 @@
+package org.fenixedu.spaces.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.spaces.migration.ImportSpacesTask.SpaceBean;
+import org.fenixedu.spaces.migration.SpaceHierarchy.Ordering;
+import org.junit.Test;
+
+public class SpaceHierarchyTest {
+
+    private static final Ordering[] HIERARCHICAL = { Ordering.BREADTH_FIRST, Ordering.SUBTREE };
+
+    private final ImportSpacesTask task = new ImportSpacesTask();
+
+    private SpaceBean bean(String parentExternalId, String externalId) {
+        final SpaceBean bean = task.new SpaceBean();
+        bean.parentExternalId = parentExternalId;
+        bean.externalId = externalId;
+        return bean;
+    }
+
+    /**
+     * Two campuses, one with two buildings of two floors each and the other with a single building, listed children first.
+     */
+    private List<SpaceBean> campuses() {
+        return Arrays.asList(bean("11", "111"), bean("11", "112"), bean("12", "121"), bean("12", "122"), bean("1", "11"),
+                bean("1", "12"), bean("2", "21"), bean(null, "1"), bean(null, "2"));
+    }
+
+    /**
+     * Checks that every bean is there once and that every parent is imported before its children: in an earlier stage, or
+     * earlier in the same batch, whose parts run in order.
+     */
+    private static void assertParentsFirst(List<SpaceBean> beans, List<List<List<SpaceBean>>> stages) {
+        final Map<String, int[]> position = new HashMap<>();
+        for (int s = 0; s < stages.size(); s++) {
+            for (int b = 0; b < stages.get(s).size(); b++) {
+                final List<SpaceBean> batch = stages.get(s).get(b);
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals("imported twice: " + batch.get(i).externalId, null,
+                            position.put(batch.get(i).externalId, new int[] { s, b, i }));
+                }
+            }
+        }
+        assertEquals(beans.size(), position.size());
+        for (SpaceBean bean : beans) {
+            final int[] parent = position.get(bean.parentExternalId);
+            if (parent == null) {
+                continue;
+            }
+            final int[] child = position.get(bean.externalId);
+            assertTrue(bean.externalId + " imported with or before its parent " + bean.parentExternalId, parent[0] < child[0]
+                    || parent[0] == child[0] && parent[1] == child[1] && parent[2] < child[2]);
+        }
+    }
+
+    private static int batches(List<List<List<SpaceBean>>> stages) {
+        int batches = 0;
+        for (List<List<SpaceBean>> stage : stages) {
+            batches += stage.size();
+        }
+        return batches;
+    }
+
+    @Test
+    public void parentsComeFirstWithinBatches() {
+        final List<SpaceBean> beans = campuses();
+        final SpaceHierarchy hierarchy = SpaceHierarchy.build(beans);
+        assertEquals(9, hierarchy.size());
+        assertEquals(2, hierarchy.getRootCount());
+        for (Ordering ordering : HIERARCHICAL) {
+            assertParentsFirst(beans, hierarchy.stages(ordering, 100));
+        }
+        assertEquals(1, hierarchy.stages(Ordering.SUBTREE, 100).size());
+        assertEquals(3, hierarchy.stages(Ordering.BREADTH_FIRST, 100).size());
+    }
+
+    @Test
+    public void parentsComeFirstAcrossSplitBatches() {
+        final List<SpaceBean> beans = new ArrayList<>(campuses());
+        // a chain deeper than a batch, so the subtree has to be split
+        String parent = "21";
+        for (int i = 0; i < 7; i++) {
+            beans.add(bean(parent, "21" + i));
+            parent = "21" + i;
+        }
+        final SpaceHierarchy hierarchy = SpaceHierarchy.build(beans);
+        for (Ordering ordering : HIERARCHICAL) {
+            for (int batchSize = 1; batchSize <= 4; batchSize++) {
+                final List<List<List<SpaceBean>>> stages = hierarchy.stages(ordering, batchSize);
+                assertParentsFirst(beans, stages);
+                assertTrue(batches(stages) > 1);
+            }
+        }
+    }
+
+    @Test
+    public void subtreesShareBatchesWhenTheyFit() {
+        final List<SpaceBean> beans = campuses();
+        final List<List<List<SpaceBean>>> stages = SpaceHierarchy.build(beans).stages(Ordering.SUBTREE, 7);
+        assertParentsFirst(beans, stages);
+        // the first campus fills a batch of its own, the second one starts the next
+        assertEquals(1, stages.size());
+        assertEquals(7, stages.get(0).get(0).size());
+        assertEquals(2, stages.get(0).get(1).size());
+    }
+
+    @Test
+    public void cyclesAreBroken() {
+        final List<SpaceBean> beans =
+                Arrays.asList(bean("3", "1"), bean("1", "2"), bean("2", "3"), bean("3", "4"), bean("5", "5"), bean("5", "6"));
+        final SpaceHierarchy hierarchy = SpaceHierarchy.build(beans);
+        // one node of the cycle and the space that is its own parent become roots
+        assertEquals(2, hierarchy.getRootCount());
+        for (Ordering ordering : Ordering.values()) {
+            final List<List<List<SpaceBean>>> stages = hierarchy.stages(ordering, 2);
+            int count = 0;
+            for (List<List<SpaceBean>> stage : stages) {
+                for (List<SpaceBean> batch : stage) {
+                    count += batch.size();
+                }
+            }
+            assertEquals(beans.size(), count);
+        }
+        // the cycle turns into a chain of three with 4 hanging from 3
+        assertEquals(3, hierarchy.stages(Ordering.BREADTH_FIRST, 10).size());
+    }
+
+    @Test
+    public void spacesWithMissingParentsAreRoots() {
+        final List<SpaceBean> beans = Arrays.asList(bean("99", "1"), bean("1", "2"), bean("", "3"), bean(null, "4"));
+        final SpaceHierarchy hierarchy = SpaceHierarchy.build(beans);
+        assertEquals(3, hierarchy.getRootCount());
+        for (Ordering ordering : HIERARCHICAL) {
+            assertParentsFirst(beans, hierarchy.stages(ordering, 1));
+        }
+    }
+
+    @Test
+    public void duplicateIdsKeepTheFirstAsParent() {
+        final SpaceBean first = bean(null, "1");
+        final SpaceBean duplicate = bean(null, "1");
+        final SpaceBean child = bean("1", "2");
+        final SpaceHierarchy hierarchy = SpaceHierarchy.build(Arrays.asList(first, child, duplicate));
+        assertEquals(3, hierarchy.size());
+        assertEquals(2, hierarchy.getRootCount());
+        final List<List<List<SpaceBean>>> stages = hierarchy.stages(Ordering.BREADTH_FIRST, 10);
+        assertEquals(2, stages.size());
+        assertTrue(stages.get(0).get(0).contains(first));
+        assertTrue(stages.get(0).get(0).contains(duplicate));
+        assertEquals(Arrays.asList(child), stages.get(1).get(0));
+
+        final List<List<List<SpaceBean>>> subtrees = hierarchy.stages(Ordering.SUBTREE, 10);
+        assertEquals(Arrays.asList(first, child, duplicate), subtrees.get(0).get(0));
+    }
+}